@@ -32,6 +32,8 @@ public class TaskQueuesExecutor<T> {
 
 	private final Consumer<T> taskHandler;
 
+	private final int batchSize;
+
 	private int concurrency;
 
 	private Phaser phaser;
@@ -42,11 +44,26 @@ public class TaskQueuesExecutor<T> {
 			int concurrency,
 			Consumer<T> taskHandler)
 			throws IOException {
+		this(queues, concurrency, 1, taskHandler);
+	}
+
+	/**
+	 * @param batchSize maximum number of available tasks polled at once by each
+	 *                  poller, and committed once all of them are handled
+	 */
+	public TaskQueuesExecutor(ObjectQueues<T> queues,
+			int concurrency,
+			int batchSize,
+			Consumer<T> taskHandler)
+			throws IOException {
 		if (concurrency <= 0)
 			throw new IllegalArgumentException("concurency must be > 0");
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize must be > 0");
 
 		this.queues = Objects.requireNonNull(queues, "queues is null");
 		this.taskHandler = Objects.requireNonNull(taskHandler, "taskHandler is null");
+		this.batchSize = batchSize;
 		pollers = new ArrayList<>(concurrency);
 		setConcurrency(concurrency);
 	}
@@ -191,9 +208,9 @@ public class TaskQueuesExecutor<T> {
 
 		private void messageLoop() {
 			while (!isStopRequested()) {
-				T task;
+				List<T> tasks;
 				try {
-					task = queue.poll();
+					tasks = queue.poll(batchSize);
 				} catch (InterruptedException e) {
 					return;
 				} catch (IOException e) {
@@ -203,14 +220,14 @@ public class TaskQueuesExecutor<T> {
 
 				long startTime = System.currentTimeMillis();
 				try {
-					taskHandler.accept(task);
+					tasks.forEach(taskHandler);
 				} catch (RuntimeException e) {
 					LOGGER.error("Error executing task {}", e);
 					return;
 				}
 
 				try {
-					commit(System.currentTimeMillis() - startTime);
+					commit(tasks.size(), System.currentTimeMillis() - startTime);
 				} catch (IOException e) {
 					LOGGER.error("Error removing persistent message, there will be duplicate", e);
 					return;
@@ -218,9 +235,9 @@ public class TaskQueuesExecutor<T> {
 			}
 		}
 
-		private synchronized void commit(long elapsed) throws IOException {
+		private synchronized void commit(int count, long elapsed) throws IOException {
 			queue.commit();
-			processedCount++;
+			processedCount += count;
 			processingTime += elapsed;
 		}
 
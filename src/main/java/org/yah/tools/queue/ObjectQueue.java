@@ -25,6 +25,21 @@ public interface ObjectQueue<E> extends Closeable {
 
 	QueueCursor<E> cursor() throws IOException;
 
+	/**
+	 * @return a cursor positioned on the element at index, or at the end if the
+	 *         queue has less elements
+	 */
+	default QueueCursor<E> cursor(long index) throws IOException {
+		QueueCursor<E> cursor = cursor();
+		try {
+			cursor.skip(index);
+		} catch (RuntimeException e) {
+			cursor.close();
+			throw e;
+		}
+		return cursor;
+	}
+
 	default void forEach(Consumer<E> consumer) throws IOException {
 		try (QueueCursor<E> cursor = cursor()) {
 			while (cursor.hasNext()) {
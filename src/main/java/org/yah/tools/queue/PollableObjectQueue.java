@@ -1,12 +1,15 @@
 package org.yah.tools.queue;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public interface PollableObjectQueue<E> extends ObjectQueue<E> {
 
 	/**
 	 * Read the last uncommited poller element, or read the next element, blocking
-	 * if necessary
+	 * if necessary. Single consumer: the polled elements are shared by all the
+	 * threads calling poll and {@link #commit()}.
 	 * 
 	 * @throws IOException
 	 * @throws {@link InterruptedException}
@@ -14,7 +17,40 @@ public interface PollableObjectQueue<E> extends ObjectQueue<E> {
 	E poll() throws IOException, InterruptedException;
 
 	/**
-	 * Remove the last polled element
+	 * Read the uncommited polled elements, or read the next element, blocking if
+	 * necessary, and up to max - 1 following elements that are already available.
+	 * 
+	 * @return the polled elements, never empty
+	 */
+	List<E> poll(int max) throws IOException, InterruptedException;
+
+	/**
+	 * Same as {@link #poll()}, waiting at most timeout for an element.
+	 * 
+	 * @return the element, or null if none is available before the timeout
+	 */
+	E poll(long timeout, TimeUnit unit) throws IOException, InterruptedException;
+
+	/**
+	 * Same as {@link #poll()}, without waiting.
+	 * 
+	 * @return the element, or null if the queue is empty
+	 */
+	E tryPoll() throws IOException, InterruptedException;
+
+	/**
+	 * Read the next element, blocking if necessary, to be committed on its own.
+	 * Elements can be committed in any order, and at most a queue defined number
+	 * of them can be in flight: this call also blocks until a polled element is
+	 * committed.<br/>
+	 * Can be called by several consumer threads, each acknowledging its own
+	 * elements with {@link PolledElement#commit()}: these elements are neither
+	 * returned by {@link #poll()} nor removed by {@link #commit()}.
+	 */
+	PolledElement<E> pollElement() throws IOException, InterruptedException;
+
+	/**
+	 * Remove the polled elements, whichever thread polled them
 	 */
 	void commit() throws IOException;
 
@@ -0,0 +1,19 @@
+package org.yah.tools.queue;
+
+import java.io.IOException;
+
+/**
+ * An element polled from a {@link PollableObjectQueue}, that can be committed
+ * independently of the other polled elements.
+ */
+public interface PolledElement<E> {
+
+	E element();
+
+	/**
+	 * Acknowledge this element: it is removed from the queue once all the
+	 * elements polled before it are also committed.
+	 */
+	void commit() throws IOException;
+
+}
@@ -7,4 +7,18 @@ public interface QueueCursor<E> extends Closeable {
 	boolean hasNext();
 
 	E next();
+
+	/**
+	 * Move over the next n elements.
+	 * 
+	 * @return the number of skipped elements, less than n if the end is reached
+	 */
+	default long skip(long n) {
+		long skipped = 0;
+		while (skipped < n && hasNext()) {
+			next();
+			skipped++;
+		}
+		return skipped;
+	}
 }
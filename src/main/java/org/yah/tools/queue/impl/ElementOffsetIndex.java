@@ -0,0 +1,119 @@
+package org.yah.tools.queue.impl;
+
+import java.util.Arrays;
+
+/**
+ * Sparse index of the offset of every interval-th element of a queue.<br/>
+ * Sequences and offsets are counted from the head of the queue when it was
+ * opened, so that entries are not affected by removes, nor by the ring
+ * compaction or growth. Entries are recorded by the cursors walking the
+ * records, and form a contiguous range of slots.
+ */
+final class ElementOffsetIndex {
+
+	static final class Entry {
+
+		private final long sequence;
+
+		private final long offset;
+
+		private Entry(long sequence, long offset) {
+			this.sequence = sequence;
+			this.offset = offset;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+	}
+
+	private final int interval;
+
+	private long headSequence;
+
+	private long headOffset;
+
+	/**
+	 * offset of the elements firstSlot * interval, (firstSlot + 1) * interval, ...
+	 */
+	private long[] offsets = new long[16];
+
+	private int start;
+
+	private int count;
+
+	private long firstSlot;
+
+	/**
+	 * @param interval elements between two entries, 0 to disable the index
+	 */
+	ElementOffsetIndex(int interval) {
+		if (interval < 0)
+			throw new IllegalArgumentException("interval must be >= 0");
+		this.interval = interval;
+	}
+
+	synchronized long headSequence() {
+		return headSequence;
+	}
+
+	synchronized long headOffset() {
+		return headOffset;
+	}
+
+	/**
+	 * Move the head after elements removed from the queue, dropping their entries
+	 */
+	synchronized void remove(long elements, long length) {
+		headSequence += elements;
+		headOffset += length;
+		while (count > 0 && firstSlot * interval < headSequence) {
+			start++;
+			count--;
+			firstSlot++;
+		}
+	}
+
+	/**
+	 * Record the offset of element sequence if it is on the index interval
+	 */
+	synchronized void record(long sequence, long offset) {
+		if (interval == 0 || sequence % interval != 0 || sequence < headSequence)
+			return;
+
+		long slot = sequence / interval;
+		if (count == 0) {
+			start = 0;
+			firstSlot = slot;
+		} else if (slot != firstSlot + count) {
+			// already indexed, or not contiguous
+			return;
+		}
+
+		if (start + count == offsets.length) {
+			if (count < offsets.length / 2)
+				System.arraycopy(offsets, start, offsets, 0, count);
+			else
+				offsets = Arrays.copyOf(Arrays.copyOfRange(offsets, start, start + count), 2 * offsets.length);
+			start = 0;
+		}
+		offsets[start + count++] = offset;
+	}
+
+	/**
+	 * @return the entry of the last indexed element before or at sequence, or
+	 *         null if none
+	 */
+	synchronized Entry floor(long sequence) {
+		if (count == 0 || sequence < firstSlot * interval)
+			return null;
+		long slot = Math.min(sequence / interval, firstSlot + count - 1);
+		return new Entry(slot * interval, offsets[start + (int) (slot - firstSlot)]);
+	}
+
+}
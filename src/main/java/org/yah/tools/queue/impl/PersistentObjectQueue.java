@@ -1,5 +1,6 @@
 package org.yah.tools.queue.impl;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -8,25 +9,55 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.yah.tools.queue.ObjectQueue;
 import org.yah.tools.queue.PollableObjectQueue;
+import org.yah.tools.queue.PolledElement;
 import org.yah.tools.queue.QueueCursor;
 import org.yah.tools.queue.impl.converters.StringObjectConverter;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.WaitStrategy;
+import org.yah.tools.ringbuffer.impl.MultiProducerOutputStream;
 import org.yah.tools.ringbuffer.impl.RingBufferState;
 import org.yah.tools.ringbuffer.impl.RingBufferUtils;
 import org.yah.tools.ringbuffer.impl.RingPosition;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
 import org.yah.tools.ringbuffer.impl.file.FileRingBuffer;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.StorageMode;
 import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.SyncMode;
 
 public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(PersistentObjectQueue.class);
+
+	/**
+	 * set in the record length when the element data are followed by their CRC32
+	 */
+	private static final int CHECKSUM_FLAG = 0x8000_0000;
+
+	private static final int RECOVERY_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int DEFAULT_ACK_WINDOW = 1024;
+
 	private final ObjectFileRingBuffer<E> fileBuffer;
 
 	private final ObjectConverter<E> converter;
@@ -35,21 +66,50 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
 	private final CappedInputStream cappedInputStream;
 
-	private SizedObject<E> lastElement;
+	/**
+	 * elements polled and not yet removed, in queue order. Also the monitor of
+	 * {@link #pollElement()} waiting for a free slot in the window.
+	 */
+	private final Deque<InFlightElement> polled = new ArrayDeque<>();
 
-	private boolean interrupted;
+	/**
+	 * serialize consumers reading the next element, so that polled is in queue
+	 * order
+	 */
+	private final ReentrantLock readLock = new ReentrantLock();
+
+	/**
+	 * held by the thread removing the committed head of polled, the other
+	 * committers do not wait for it
+	 */
+	private final ReentrantLock removeLock = new ReentrantLock();
+
+	/**
+	 * size of polled, for the threads waiting for an element to read
+	 */
+	private volatile int polledCount;
+
+	private final int ackWindow;
+
+	private final ElementOffsetIndex offsetIndex;
+
+	private volatile boolean interrupted;
 
 	private PersistentObjectQueue(Builder<E> builder)
 			throws IOException {
 		this.converter = builder.converter;
-		this.fileBuffer = new ObjectFileRingBuffer<>(builder.fileBufferBuilder, converter);
+		this.ackWindow = builder.ackWindow;
+		this.offsetIndex = new ElementOffsetIndex(builder.offsetIndexInterval);
+		this.fileBuffer = new ObjectFileRingBuffer<>(builder.fileBufferBuilder, converter, builder.checksum);
+		if (builder.recovery)
+			fileBuffer.recover(offsetIndex);
 		this.elementInputStream = fileBuffer.reader();
 		this.cappedInputStream = new CappedInputStream(elementInputStream);
 	}
 
 	@Override
 	public int size() {
-		return state().elements();
+		return (int) Math.min(Integer.MAX_VALUE, state().elements());
 	}
 
 	@Override
@@ -59,67 +119,351 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 	}
 
 	/**
-	 * remove the last polled element if any, and read the next element, blocking if
-	 * empty
+	 * Return the first uncommitted polled element if any, or read the next element,
+	 * blocking if empty. The elements returned by {@link #pollElement()} are not
+	 * polled again.
 	 * 
 	 * @throws IOException
 	 */
 	@Override
 	public E poll() throws IOException, InterruptedException {
-		if (lastElement != null)
-			return lastElement.getElement();
+		InFlightElement element = firstUncommittedPoll();
+		if (element != null)
+			return element.element();
+		return readNext(true).element();
+	}
+
+	/**
+	 * @return the first polled element not committed, null if none
+	 */
+	private InFlightElement firstUncommittedPoll() {
+		synchronized (polled) {
+			for (InFlightElement element : polled) {
+				if (element.uncommittedPoll())
+					return element;
+			}
+		}
+		return null;
+	}
 
+	/**
+	 * Return the uncommitted polled elements if any, or read the next element,
+	 * blocking if empty, followed by at most max - 1 elements already available.
+	 */
+	@Override
+	public List<E> poll(int max) throws IOException, InterruptedException {
+		if (max <= 0)
+			throw new IllegalArgumentException("max must be > 0");
+		List<E> res = polledElements();
+		if (!res.isEmpty())
+			return res;
+
+		readLock.lockInterruptibly();
 		try {
-			int size = readInt(elementInputStream);
-			E element = readElement(size);
-			lastElement = new SizedObject<>(element, size);
-			return element;
+			res.add(read(true).element());
+			while (res.size() < max && available())
+				res.add(read(true).element());
+		} finally {
+			readLock.unlock();
+		}
+		return res;
+	}
+
+	private List<E> polledElements() {
+		List<E> res = new ArrayList<>();
+		synchronized (polled) {
+			for (InFlightElement element : polled) {
+				if (element.uncommittedPoll())
+					res.add(element.element());
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Wait for a free slot in the ack window, then read the next element. Can be
+	 * called by any number of consumer threads.
+	 */
+	@Override
+	public PolledElement<E> pollElement() throws IOException, InterruptedException {
+		readLock.lockInterruptibly();
+		try {
+			synchronized (polled) {
+				while (polled.size() >= ackWindow) {
+					if (interrupted)
+						throw new InterruptedException();
+					polled.wait();
+				}
+			}
+			return read(false);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	private InFlightElement readNext(boolean sharedPoll) throws IOException, InterruptedException {
+		readLock.lockInterruptibly();
+		try {
+			return read(sharedPoll);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Read the next element if one is available without blocking, waiting at
+	 * most timeout for the other consumers reading.
+	 * 
+	 * @return the element, or null if none is available
+	 */
+	private InFlightElement tryRead(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		if (!readLock.tryLock(timeout, unit))
+			return null;
+		try {
+			return available() ? read(true) : null;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Must hold the read lock: polled can not grow, and the removes update the
+	 * state before polled, so the result never exceeds the elements left to read.
+	 */
+	private boolean available() {
+		synchronized (polled) {
+			return state().elements() > polled.size();
+		}
+	}
+
+	/**
+	 * @param sharedPoll read for {@link #poll()}, to be committed by
+	 *                   {@link #commit()}
+	 */
+	private InFlightElement read(boolean sharedPoll) throws IOException, InterruptedException {
+		SizedObject<E> record;
+		try {
+			record = readRecord(cappedInputStream);
+		} catch (InvalidRecordException e) {
+			// the record can never be polled: committed, so that the head moves over it
+			InFlightElement invalid = new InFlightElement(new SizedObject<>(null, e.recordSize), false);
+			invalid.committed = true;
+			synchronized (polled) {
+				polled.addLast(invalid);
+				polledCount = polled.size();
+			}
+			removeCommitted(false);
+			throw e;
 		} catch (InterruptedIOException | RingBufferClosedException e) {
 			if (interrupted)
 				throw new InterruptedException();
 			throw e;
 		}
+		InFlightElement element = new InFlightElement(record, sharedPoll);
+		synchronized (polled) {
+			polled.addLast(element);
+			polledCount = polled.size();
+		}
+		return element;
 	}
 
+	/**
+	 * Wait for an element without reading: the reader is only used once an
+	 * element is available, so that it never blocks.
+	 */
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		InFlightElement uncommitted = firstUncommittedPoll();
+		if (uncommitted != null)
+			return uncommitted.element();
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true) {
+			long remaining = Math.max(0, deadline - System.nanoTime());
+			InFlightElement element = tryRead(remaining, TimeUnit.NANOSECONDS);
+			if (element != null)
+				return element.element();
+			remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return null;
+			try {
+				if (!fileBuffer.awaitElements(remaining, TimeUnit.NANOSECONDS, () -> polledCount,
+						() -> interrupted))
+					return null;
+			} catch (RingBufferClosedException e) {
+				if (interrupted)
+					throw new InterruptedException();
+				throw e;
+			}
+			if (interrupted)
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Elements are published with their records, so the reader never blocks
+	 * once the state has elements that are not polled.
+	 */
+	@Override
+	public E tryPoll() throws IOException, InterruptedException {
+		return poll(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Remove all the polled elements with a single state update. The elements
+	 * returned by {@link #pollElement()} are not committed, and the head does not
+	 * move over them.
+	 */
 	@Override
 	public void commit() throws IOException {
-		if (lastElement != null) {
-			fileBuffer.remove(Integer.BYTES + lastElement.getSize(), 1);
-			lastElement = null;
+		synchronized (polled) {
+			for (InFlightElement element : polled) {
+				if (element.sharedPoll)
+					element.committed = true;
+			}
+		}
+		removeCommitted(true);
+	}
+
+	/**
+	 * Remove the committed elements at the head of the window: the head only
+	 * moves over contiguous committed elements, so that the uncommitted ones are
+	 * polled again after a restart.<br/>
+	 * Unless wait is set, a committer returns if another thread is removing: that
+	 * thread checks the head again once done, so the removes of concurrent commits
+	 * are grouped.
+	 */
+	private void removeCommitted(boolean wait) throws IOException {
+		do {
+			if (wait)
+				removeLock.lock();
+			else if (!removeLock.tryLock())
+				return;
+			try {
+				removeCommittedHead();
+			} finally {
+				removeLock.unlock();
+			}
+			wait = false;
+		} while (headCommitted());
+	}
+
+	private void removeCommittedHead() throws IOException {
+		long size = 0;
+		int count = 0;
+		synchronized (polled) {
+			for (InFlightElement element : polled) {
+				if (!element.committed)
+					break;
+				size += element.size;
+				count++;
+			}
+		}
+		if (count == 0)
+			return;
+
+		// only the remove lock owner removes the head of polled
+		fileBuffer.remove(size, count);
+		offsetIndex.remove(count, size);
+		synchronized (polled) {
+			for (int i = 0; i < count; i++)
+				polled.removeFirst();
+			polledCount = polled.size();
+			polled.notifyAll();
+		}
+	}
+
+	private boolean headCommitted() {
+		synchronized (polled) {
+			InFlightElement head = polled.peekFirst();
+			return head != null && head.committed;
 		}
 	}
 
 	@Override
 	public void clear() throws IOException {
-		fileBuffer.remove(fileBuffer.size());
-		lastElement = null;
+		removeLock.lock();
+		try {
+			synchronized (polled) {
+				ObjectRingBufferState state = state();
+				fileBuffer.remove(state.size(), (int) state.elements());
+				offsetIndex.remove(state.elements(), state.size());
+				discard(polled.size());
+			}
+		} finally {
+			removeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drop the first count polled elements, already removed from the buffer.
+	 */
+	private void discard(int count) {
+		for (int i = 0; i < count; i++)
+			polled.removeFirst().committed = true;
+		polledCount = polled.size();
+		polled.notifyAll();
 	}
 
 	@Override
 	public void interrupt() {
 		interrupted = true;
 		RingBufferUtils.closeQuietly(elementInputStream);
+		synchronized (polled) {
+			polled.notifyAll();
+		}
 	}
 
+	/**
+	 * Move the first length elements to target without decoding them: their
+	 * records are transferred as is, from file to file when possible.
+	 */
 	void transferTo(ObjectQueue<E> target, int length) throws IOException {
 		if (!(target instanceof PersistentObjectQueue))
 			throw new IllegalArgumentException("Invalid target type " + target.getClass().getName());
 
-		int currentLength = fileBuffer.state().elements();
-		if (currentLength < length)
-			throw new IllegalArgumentException("Buffer elements count " + currentLength + " is less that requested length " + length);
-		
 		PersistentObjectQueue<E> persistentTarget = (PersistentObjectQueue<E>) target;
-		Collection<E> elements = new ArrayList<>(length);
-		int totalSize = 0;
-		while (elements.size() < length) {
-			int size = readInt(elementInputStream);
-			elements.add(readElement(size));
-			totalSize += size + Integer.BYTES;
+		// no read nor remove until the transferred records are removed: the scanned
+		// records are the ones removed
+		readLock.lock();
+		removeLock.lock();
+		try {
+			long currentLength = fileBuffer.state().elements();
+			if (currentLength < length)
+				throw new IllegalArgumentException("Buffer elements count " + currentLength + " is less that requested length " + length);
+
+			long totalSize = 0;
+			try (InputStream is = fileBuffer.reader()) {
+				for (int i = 0; i < length; i++)
+					totalSize += skipRecord(is);
+			}
+			persistentTarget.fileBuffer.transferRecords(fileBuffer, totalSize, length);
+			// the transferred polled elements are already read, the others stay polled
+			synchronized (polled) {
+				int transferred = Math.min(length, polled.size());
+				long polledSize = 0;
+				Iterator<InFlightElement> iterator = polled.iterator();
+				for (int i = 0; i < transferred; i++)
+					polledSize += iterator.next().size;
+				skipFully(elementInputStream, totalSize - polledSize);
+				fileBuffer.remove(totalSize, length);
+				offsetIndex.remove(length, totalSize);
+				discard(transferred);
+			}
+		} finally {
+			removeLock.unlock();
+			readLock.unlock();
 		}
-		persistentTarget.offer(elements);
-		fileBuffer.remove(totalSize, elements.size());
-		lastElement = null;
+	}
+
+	/**
+	 * With write behind, get a future completed once every element offered before
+	 * this call is written to the file.
+	 * 
+	 * @see FileRingBuffer#awaitWritten()
+	 */
+	public CompletableFuture<Long> awaitWritten() {
+		return fileBuffer.awaitWritten();
 	}
 
 	@Override
@@ -129,24 +473,40 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
 	@Override
 	public void offer(Collection<E> elements) throws IOException {
-		try (OutputStream outputStream = fileBuffer.writer()) {
-			for (E element : elements) {
-				fileBuffer.writeElement(element, outputStream);
-			}
-		}
-	}
-
-	private E readElement(int elementSize) throws IOException {
-		return readElement(cappedInputStream, elementSize);
+		fileBuffer.writeElements(elements);
 	}
 
-	private E readElement(CappedInputStream is, int elementSize) throws IOException {
+	/**
+	 * read the next record, the returned size is the record length in the buffer.
+	 * If the element can not be decoded, the rest of the record is skipped so that
+	 * the stream is at the next record.
+	 * 
+	 * @throws InvalidRecordException with the length of the skipped record
+	 */
+	private SizedObject<E> readRecord(CappedInputStream is) throws IOException {
+		int header = readInt(is);
+		int elementSize = header & ~CHECKSUM_FLAG;
+		boolean checksum = header != elementSize;
+		int recordSize = (checksum ? 2 * Integer.BYTES : Integer.BYTES) + elementSize;
+		CheckedInputStream cis = checksum ? new CheckedInputStream(is, new CRC32()) : null;
+		E element;
 		is.limit(elementSize);
-		E element = converter.read(is);
-		if (is.remaining() > 0)
-			throw new IOException("remaining element data " + is.remaining());
+		try {
+			element = converter.read(checksum ? cis : is);
+			if (is.remaining() > 0)
+				throw new IOException("remaining element data " + is.remaining());
+		} catch (InterruptedIOException | RingBufferClosedException e) {
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			long remaining = is.remaining() + (checksum ? Integer.BYTES : 0);
+			is.unlimit();
+			skipFully(is, remaining);
+			throw new InvalidRecordException(recordSize, e);
+		}
 		is.unlimit();
-		return element;
+		if (checksum && readInt(is) != (int) cis.getChecksum().getValue())
+			throw new InvalidRecordException(recordSize, new IOException("Invalid element checksum"));
+		return new SizedObject<>(element, recordSize);
 	}
 
 	private ObjectRingBufferState state() {
@@ -182,16 +542,102 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 		return res;
 	}
 
+	/**
+	 * @return the length of the skipped record
+	 */
+	private static long skipRecord(InputStream is) throws IOException {
+		int header = readInt(is);
+		int elementSize = header & ~CHECKSUM_FLAG;
+		long length = (header == elementSize ? 0 : Integer.BYTES) + (long) elementSize;
+		skipFully(is, length);
+		return Integer.BYTES + length;
+	}
+
+	private static void skipFully(InputStream is, long length) throws IOException {
+		while (length > 0) {
+			long skipped = is.skip(length);
+			if (skipped <= 0) {
+				safeRead(is);
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	private final class InFlightElement implements PolledElement<E> {
+
+		private final E element;
+
+		private final int size;
+
+		/**
+		 * polled with {@link PersistentObjectQueue#poll()}, false if returned by
+		 * {@link PersistentObjectQueue#pollElement()}
+		 */
+		private final boolean sharedPoll;
+
+		/**
+		 * set once committed or removed from the buffer
+		 */
+		private volatile boolean committed;
+
+		public InFlightElement(SizedObject<E> record, boolean sharedPoll) {
+			this.element = record.getElement();
+			this.size = record.getSize();
+			this.sharedPoll = sharedPoll;
+		}
+
+		private boolean uncommittedPoll() {
+			return sharedPoll && !committed;
+		}
+
+		@Override
+		public E element() {
+			return element;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			if (!committed) {
+				committed = true;
+				removeCommitted(false);
+			}
+		}
+
+	}
+
+	/**
+	 * Cursor from the head of the queue, recording the elements offsets in the
+	 * index as it moves.
+	 */
 	private final class QueueIterator implements QueueCursor<E> {
 
+		private final InputStream reader;
+
 		private final CappedInputStream is;
 
-		private int elementsSize;
+		/**
+		 * index sequence and offset of the head when this cursor was created
+		 */
+		private final long headSequence;
+
+		private final long headOffset;
+
+		private long elementsSize;
 
-		private int elementsCount;
+		private long elementsCount;
 
 		public QueueIterator() throws IOException {
-			is = new CappedInputStream(fileBuffer.reader());
+			// no remove between the reader creation and the index head
+			removeLock.lock();
+			try {
+				reader = fileBuffer.reader();
+				headSequence = offsetIndex.headSequence();
+				headOffset = offsetIndex.headOffset();
+			} finally {
+				removeLock.unlock();
+			}
+			is = new CappedInputStream(reader);
 		}
 
 		@Override
@@ -213,50 +659,98 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 			if (!hasNext())
 				throw new NoSuchElementException();
 			try {
-				int size = readInt(is);
-				elementsSize += size;
+				offsetIndex.record(headSequence + elementsCount, headOffset + elementsSize);
+				SizedObject<E> record = readRecord(is);
+				elementsSize += record.getSize();
+				elementsCount++;
+				return record.getElement();
+			} catch (InvalidRecordException e) {
+				// skipped
+				elementsSize += e.recordSize;
 				elementsCount++;
-				return readElement(is, size);
+				throw new UncheckedIOException(e);
 			} catch (IOException e) {
 				throw new UncheckedIOException(e);
 			}
 		}
 
+		/**
+		 * Jump to the last indexed element before the target, then skip the following
+		 * records without reading their elements.
+		 */
+		@Override
+		public long skip(long n) {
+			long target = elementsCount + n;
+			long skipped = elementsCount;
+			try {
+				ElementOffsetIndex.Entry entry = offsetIndex.floor(headSequence + target);
+				if (entry != null && entry.getSequence() > headSequence + elementsCount) {
+					skipFully(reader, entry.getOffset() - headOffset - elementsSize);
+					elementsCount = entry.getSequence() - headSequence;
+					elementsSize = entry.getOffset() - headOffset;
+				}
+				while (elementsCount < target && hasNext()) {
+					offsetIndex.record(headSequence + elementsCount, headOffset + elementsSize);
+					elementsSize += skipRecord(reader);
+					elementsCount++;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return elementsCount - skipped;
+		}
+
+	}
+
+	/**
+	 * An element that can not be decoded, the record has been skipped.
+	 */
+	private static final class InvalidRecordException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int recordSize;
+
+		public InvalidRecordException(int recordSize, Throwable cause) {
+			super(cause.getMessage(), cause);
+			this.recordSize = recordSize;
+		}
+
 	}
 
 	private static class ObjectRingBufferState extends RingBufferState {
 
-		private final int elements;
+		private final long elements;
 
-		public ObjectRingBufferState(int position, long cycle, int capacity, int size, int elements) {
+		public ObjectRingBufferState(long position, long cycle, long capacity, long size, long elements) {
 			super(position, cycle, capacity, size);
 			this.elements = elements;
 		}
 
-		public ObjectRingBufferState(RingPosition position, int size, int elements) {
+		public ObjectRingBufferState(RingPosition position, long size, long elements) {
 			super(position, size);
 			this.elements = elements;
 		}
 
-		public ObjectRingBufferState(RingBufferState rbs, int elements) {
+		public ObjectRingBufferState(RingBufferState rbs, long elements) {
 			super(rbs);
 			this.elements = elements;
 		}
 
-		public int elements() {
+		public long elements() {
 			return elements;
 		}
 
 		@Override
-		protected RingBufferState newState(int position, long cycle, int capacity, int size) {
+		protected RingBufferState newState(long position, long cycle, long capacity, long size) {
 			return new ObjectRingBufferState(position, cycle, capacity, size, elements);
 		}
 
-		public RingBufferState remove(int length, int count) {
+		public RingBufferState remove(long length, int count) {
 			return new ObjectRingBufferState(remove(length), elements - count);
 		}
 
-		public RingBufferState add(int length, int count) {
+		public RingBufferState add(long length, int count) {
 			return new ObjectRingBufferState(incrementSize(length), elements + count);
 		}
 
@@ -264,15 +758,78 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
 	static class ObjectFileRingBuffer<E> extends FileRingBuffer {
 
-		private static final int HEADER_LENGTH = 4 * Integer.BYTES;
+		private static final int ELEMENTS_LENGTH = Long.BYTES;
 
-		private final ElementBuffer<E> elementBuffer;
+		private static final int LEGACY_ELEMENTS_LENGTH = Integer.BYTES;
 
-		private int pendingElements;
+		private final ElementBuffer<E> elementBuffer;
 
-		public ObjectFileRingBuffer(Builder builder, ObjectConverter<E> converter) throws IOException {
+		public ObjectFileRingBuffer(Builder builder, ObjectConverter<E> converter, boolean checksum)
+				throws IOException {
 			super(builder);
-			this.elementBuffer = new ElementBuffer<>(converter);
+			this.elementBuffer = new ElementBuffer<>(converter, checksum);
+		}
+
+		/**
+		 * Validate the records of the last written state, and truncate the state to
+		 * the last valid record. Records written with a checksum are verified, others
+		 * are only checked for their length.
+		 */
+		public void recover(ElementOffsetIndex offsetIndex) throws IOException {
+			ObjectRingBufferState state = state();
+			long size = state.size();
+			long validSize = 0;
+			long validElements = 0;
+			try (InputStream is = new BufferedInputStream(createReader(), RECOVERY_BUFFER_SIZE)) {
+				byte[] chunk = new byte[8192];
+				CRC32 crc = new CRC32();
+				while (validSize < size) {
+					long recordLength = scanRecord(is, size - validSize, chunk, crc);
+					if (recordLength < 0)
+						break;
+					offsetIndex.record(validElements, validSize);
+					validSize += recordLength;
+					validElements++;
+				}
+			}
+
+			if (validSize < size || validElements != state.elements()) {
+				LOGGER.warn("{}: truncating {} elements ({} bytes) to {} elements ({} bytes)", this,
+						state.elements(), size, validElements, validSize);
+				long recoveredSize = validSize, recoveredElements = validElements;
+				updateState(s -> new ObjectRingBufferState(s.position(), recoveredSize, recoveredElements));
+			}
+		}
+
+		/**
+		 * @return the record length, or -1 if the record is not valid
+		 */
+		private static long scanRecord(InputStream is, long remaining, byte[] chunk, CRC32 crc)
+				throws IOException {
+			if (remaining < Integer.BYTES)
+				return -1;
+			int header = readInt(is);
+			int elementSize = header & ~CHECKSUM_FLAG;
+			boolean checksum = header != elementSize;
+			long recordLength = (checksum ? 2 * Integer.BYTES : Integer.BYTES) + (long) elementSize;
+			if (recordLength > remaining)
+				return -1;
+
+			if (!checksum) {
+				skipFully(is, elementSize);
+				return recordLength;
+			}
+
+			crc.reset();
+			int left = elementSize;
+			while (left > 0) {
+				int read = is.read(chunk, 0, Math.min(left, chunk.length));
+				if (read < 0)
+					throw new EOFException();
+				crc.update(chunk, 0, read);
+				left -= read;
+			}
+			return readInt(is) == (int) crc.getValue() ? recordLength : -1;
 		}
 
 		@Override
@@ -280,58 +837,99 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 			return (ObjectRingBufferState) super.state();
 		}
 
-		public synchronized int remove(int length, int count) throws IOException {
-			int removable = Math.min(size(), length);
-			if (removable < length)
-				throw new IOException("Missing bytes to remove: requested " + length + ", removable: " + removable);
+		public long remove(long length, int count) throws IOException {
+			long removable;
+			synchronized (this) {
+				removable = Math.min(size(), length);
+				if (removable < length)
+					throw new IOException("Missing bytes to remove: requested " + length + ", removable: " + removable);
+				if (removable > 0)
+					updateState(s -> remove(s, removable, count));
+			}
 			if (removable > 0)
-				updateState(s -> remove(s, removable, count));
+				awaitStateDurable();
+			checkCompaction();
 			return removable;
 		}
 
-		private RingBufferState remove(RingBufferState state, int length, int count) {
+		private RingBufferState remove(RingBufferState state, long length, int count) {
 			ObjectRingBufferState orbs = (ObjectRingBufferState) state;
 			return orbs.remove(length, count);
 		}
 
 		@Override
-		protected RingBufferState newState(int capacity) {
+		protected RingBufferState newState(long capacity) {
 			return new ObjectRingBufferState(0, 0, capacity, 0, 0);
 		}
 
 		@Override
-		protected RingBufferState readHeader(IntBuffer intBuffer) throws IOException {
-			int pos = intBuffer.get();
-			int size = intBuffer.get();
-			int capacity = intBuffer.get();
-			int elements = intBuffer.get();
-			return new ObjectRingBufferState(new RingPosition(pos, 0, capacity), size, elements);
+		protected RingBufferState readHeader(ByteBuffer buffer) throws IOException {
+			RingBufferState state = super.readHeader(buffer);
+			return new ObjectRingBufferState(state, buffer.getLong());
 		}
 
 		@Override
-		protected void writeHeader(RingBufferState state, IntBuffer intBuffer) {
-			super.writeHeader(state, intBuffer);
+		protected void writeHeader(RingBufferState state, ByteBuffer buffer) {
+			super.writeHeader(state, buffer);
 			ObjectRingBufferState os = (ObjectRingBufferState) state;
-			intBuffer.put(os.elements);
+			buffer.putLong(os.elements);
+		}
+
+		@Override
+		protected RingBufferState readLegacyHeader(IntBuffer intBuffer) throws IOException {
+			RingBufferState state = super.readLegacyHeader(intBuffer);
+			return new ObjectRingBufferState(state, intBuffer.get());
+		}
+
+		/**
+		 * @return false if no element was available before the timeout
+		 */
+		public boolean awaitElements(long timeout, TimeUnit unit, IntSupplier polled, BooleanSupplier cancelled)
+				throws IOException {
+			return awaitInputState(
+					s -> cancelled.getAsBoolean() || ((ObjectRingBufferState) s).elements() > polled.getAsInt(),
+					timeout, unit) != null;
+		}
+
+		public void transferRecords(ObjectFileRingBuffer<E> source, long length, int count) throws IOException {
+			transferFrom(source, length, count);
+		}
+
+		public void writeElements(Collection<E> elements) throws IOException {
+			try (OutputStream outputStream = writer()) {
+				if (outputStream instanceof MultiProducerOutputStream) {
+					// concurrent writers, can not share the element buffer
+					ElementBuffer<E> buffer = new ElementBuffer<>(elementBuffer.converter, elementBuffer.checksum);
+					for (E element : elements) {
+						buffer.write(element, outputStream);
+					}
+					((MultiProducerOutputStream) outputStream).addRecords(elements.size());
+				} else {
+					for (E element : elements) {
+						writeElement(element, outputStream);
+					}
+				}
+			}
 		}
 
 		public void writeElement(E element, OutputStream outputStream) throws IOException {
 			elementBuffer.write(element, outputStream);
-			pendingElements++;
+			addPendingRecords(1);
 		}
 
 		@Override
-		protected void flushWriter() throws IOException {
-			if (pendingElements > 0) {
-				updateState(s -> ((ObjectRingBufferState) s).add(pendingWrite(), pendingElements));
-				pendingElements = 0;
-				pendingWrite = 0;
-			}
+		protected RingBufferState incrementSize(RingBufferState state, long length, int records) {
+			return ((ObjectRingBufferState) state).add(length, records);
+		}
+
+		@Override
+		protected int stateLength() {
+			return super.stateLength() + ELEMENTS_LENGTH;
 		}
 
 		@Override
-		protected int headerLength() {
-			return HEADER_LENGTH;
+		protected int legacyHeaderLength() {
+			return super.legacyHeaderLength() + LEGACY_ELEMENTS_LENGTH;
 		}
 
 	}
@@ -340,16 +938,30 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
 		private final ObjectConverter<E> converter;
 
-		public ElementBuffer(ObjectConverter<E> converter) {
+		private final boolean checksum;
+
+		private final CRC32 crc;
+
+		public ElementBuffer(ObjectConverter<E> converter, boolean checksum) {
 			super(1024);
 			this.converter = converter;
+			this.checksum = checksum;
+			this.crc = checksum ? new CRC32() : null;
 		}
 
 		public final void write(E element, OutputStream target) throws IOException {
 			converter.write(element, this);
 			int elementSize = size();
-			writeInt(elementSize, target);
-			target.write(buf, 0, elementSize);
+			if (checksum) {
+				writeInt(elementSize | CHECKSUM_FLAG, target);
+				target.write(buf, 0, elementSize);
+				crc.reset();
+				crc.update(buf, 0, elementSize);
+				writeInt((int) crc.getValue(), target);
+			} else {
+				writeInt(elementSize, target);
+				target.write(buf, 0, elementSize);
+			}
 			reset();
 		}
 
@@ -367,6 +979,14 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 
 		private FileRingBuffer.Builder fileBufferBuilder = FileRingBuffer.builder();
 
+		private boolean checksum;
+
+		private boolean recovery;
+
+		private int ackWindow = DEFAULT_ACK_WINDOW;
+
+		private int offsetIndexInterval;
+
 		private Builder(ObjectConverter<E> converter) {
 			this.converter = Objects.requireNonNull(converter, "converter is null");
 		}
@@ -376,11 +996,21 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 			return this;
 		}
 
-		public Builder<E> withLimit(int limit) {
+		public Builder<E> withLimit(long limit) {
 			fileBufferBuilder = fileBufferBuilder.withLimit(limit);
 			return this;
 		}
 
+		public Builder<E> withMaxCapacity(long maxCapacity) {
+			fileBufferBuilder = fileBufferBuilder.withMaxCapacity(maxCapacity);
+			return this;
+		}
+
+		public Builder<E> withPreallocation(boolean preallocate) {
+			fileBufferBuilder = fileBufferBuilder.withPreallocation(preallocate);
+			return this;
+		}
+
 		public Builder<E> withDefaultReaderCache(int defaultReaderCache) {
 			fileBufferBuilder = fileBufferBuilder.withDefaultReaderCache(defaultReaderCache);
 			return this;
@@ -391,6 +1021,101 @@ public final class PersistentObjectQueue<E> implements PollableObjectQueue<E> {
 			return this;
 		}
 
+		public Builder<E> withStorageMode(StorageMode storageMode) {
+			fileBufferBuilder = fileBufferBuilder.withStorageMode(storageMode);
+			return this;
+		}
+
+		public Builder<E> withCompactionThreshold(double compactionThreshold) {
+			fileBufferBuilder = fileBufferBuilder.withCompactionThreshold(compactionThreshold);
+			return this;
+		}
+
+		public Builder<E> withCompactionDelay(long compactionDelay) {
+			fileBufferBuilder = fileBufferBuilder.withCompactionDelay(compactionDelay);
+			return this;
+		}
+
+		public Builder<E> withGroupCommitWindow(long window, TimeUnit unit) {
+			fileBufferBuilder = fileBufferBuilder.withGroupCommitWindow(window, unit);
+			return this;
+		}
+
+		/**
+		 * See {@link FileRingBuffer.Builder#withDeferredHeader(int, long, TimeUnit)}:
+		 * after a crash, committed elements can be polled again and the last offered
+		 * ones are lost.
+		 */
+		public Builder<E> withDeferredHeader(int updates, long delay, TimeUnit unit) {
+			fileBufferBuilder = fileBufferBuilder.withDeferredHeader(updates, delay, unit);
+			return this;
+		}
+
+		/**
+		 * Append a CRC32 to each written element, verified when the element is read.
+		 */
+		public Builder<E> withChecksum(boolean checksum) {
+			this.checksum = checksum;
+			return this;
+		}
+
+		/**
+		 * Validate all the elements when opening the queue, and drop the elements
+		 * following the first invalid one, as left by a torn write.
+		 */
+		public Builder<E> withRecovery(boolean recovery) {
+			this.recovery = recovery;
+			return this;
+		}
+
+		/**
+		 * Maximum number of elements polled with {@link PersistentObjectQueue#pollElement()}
+		 * and not yet removed.
+		 */
+		public Builder<E> withAckWindow(int ackWindow) {
+			if (ackWindow <= 0)
+				throw new IllegalArgumentException("ackWindow must be > 0");
+			this.ackWindow = ackWindow;
+			return this;
+		}
+
+		/**
+		 * Index the offset of every interval-th element in memory, so that
+		 * {@link QueueCursor#skip(long)} jumps over the indexed elements. The index is
+		 * filled by the cursors and the recovery scan. 0 (the default) disables it.
+		 */
+		public Builder<E> withOffsetIndex(int interval) {
+			if (interval < 0)
+				throw new IllegalArgumentException("interval must be >= 0");
+			this.offsetIndexInterval = interval;
+			return this;
+		}
+
+		public Builder<E> withWriteBehind(int capacity) {
+			fileBufferBuilder = fileBufferBuilder.withWriteBehind(capacity);
+			return this;
+		}
+
+		public Builder<E> withSegmentSize(long segmentSize) {
+			fileBufferBuilder = fileBufferBuilder.withSegmentSize(segmentSize);
+			return this;
+		}
+
+		/**
+		 * {@link ConcurrencyMode#SPSC} or {@link ConcurrencyMode#MPSC} can be used as
+		 * with any number of consumers, reads and removes are serialized by the
+		 * queue.
+		 */
+		public Builder<E> withConcurrencyMode(ConcurrencyMode concurrencyMode) {
+			fileBufferBuilder = fileBufferBuilder.withConcurrencyMode(concurrencyMode);
+			return this;
+		}
+
+		public Builder<E> withWaitStrategy(WaitStrategy waitStrategy) {
+			fileBufferBuilder = fileBufferBuilder.withWaitStrategy(waitStrategy);
+			return this;
+		}
+
 		public Builder<E> withWriteBufferSize(int writeBufferSize) {
 			fileBufferBuilder = fileBufferBuilder.withWriteBufferSize(writeBufferSize);
 			return this;
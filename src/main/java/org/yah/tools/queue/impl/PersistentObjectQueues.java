@@ -12,6 +12,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -20,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yah.tools.queue.ObjectQueues;
 import org.yah.tools.queue.PollableObjectQueue;
+import org.yah.tools.queue.PolledElement;
 import org.yah.tools.queue.QueueCursor;
 import org.yah.tools.ringbuffer.impl.RingBufferUtils;
 
@@ -292,6 +294,26 @@ public class PersistentObjectQueues<E> implements ObjectQueues<E> {
 			return queue.poll();
 		}
 
+		@Override
+		public List<E> poll(int max) throws IOException, InterruptedException {
+			return queue.poll(max);
+		}
+
+		@Override
+		public E poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+			return queue.poll(timeout, unit);
+		}
+
+		@Override
+		public E tryPoll() throws IOException, InterruptedException {
+			return queue.tryPoll();
+		}
+
+		@Override
+		public PolledElement<E> pollElement() throws IOException, InterruptedException {
+			return queue.pollElement();
+		}
+
 		@Override
 		public void commit() throws IOException {
 			queue.commit();
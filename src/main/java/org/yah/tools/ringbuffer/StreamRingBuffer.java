@@ -6,6 +6,8 @@ package org.yah.tools.ringbuffer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * @author Yah
@@ -16,7 +18,7 @@ public interface StreamRingBuffer {
 	/**
 	 * @return the current buffer size (in bytes)
 	 */
-	int size();
+	long size();
 
 	/**
 	 * @return a new InputStream starting from the current position.
@@ -28,11 +30,33 @@ public interface StreamRingBuffer {
 	 */
 	OutputStream writer() throws IOException;
 
+	/**
+	 * @return a new {@link ReadableByteChannel} starting from the current
+	 *         position, reading directly into the given ByteBuffers.
+	 */
+	ReadableByteChannel readChannel() throws IOException;
+
+	/**
+	 * @return the channel used to write data to this buffer from ByteBuffers,
+	 *         same rules as {@link #writer()} apply.
+	 */
+	WritableByteChannel writeChannel() throws IOException;
+
+	/**
+	 * Write up to maxBytes from the buffer start to target, without removing
+	 * them. File backed buffers write directly from the file to target (using
+	 * sendfile when available).
+	 * 
+	 * @return the number of bytes written, lower than maxBytes if the buffer
+	 *         size is lower or target does not accept more bytes
+	 */
+	long transferTo(WritableByteChannel target, long maxBytes) throws IOException;
+
 	/**
 	 * Remove length bytes from buffer start. @throws
 	 * 
 	 * @throws IOException
 	 */
-	int remove(int length) throws IOException;
+	long remove(long length) throws IOException;
 
 }
@@ -5,9 +5,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.BufferOverflowException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -27,7 +39,74 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		RingBufferState udpateState(RingBufferState state) throws IOException;
 	}
 
-	private final int limit;
+	/**
+	 * How state changes are published to readers, writer and remover.
+	 */
+	public enum ConcurrencyMode {
+		/**
+		 * every state change is done holding the buffer monitor, any number of
+		 * threads can remove concurrently
+		 */
+		LOCKING,
+		/**
+		 * single producer / single consumer: state is published with a compare and
+		 * set, readers take snapshots without locking and the monitor is only used
+		 * to park and wake up waiting threads. Only one thread may call remove at a
+		 * time (writers are always serialized).
+		 */
+		SPSC,
+		/**
+		 * multiple producers / single consumer: same as {@link #SPSC}, but writers
+		 * are {@link MultiProducerOutputStream} that can be used concurrently. Each
+		 * flush reserves a range of the ring with a compare and set on a write
+		 * cursor, fills it in parallel with the other writers, and ranges are
+		 * published to readers in reservation order.
+		 */
+		MPSC;
+	}
+
+	/**
+	 * How readers wait for data and writers for free space.
+	 */
+	public enum WaitStrategy {
+		/**
+		 * wait on the buffer monitor, woken up by the state updates. Lowest CPU
+		 * usage, highest wake up latency.
+		 */
+		BLOCKING,
+		/**
+		 * spin on the state for a few iterations, then yield the CPU between checks
+		 */
+		SPIN_YIELD,
+		/**
+		 * spin on the state for a few iterations, then park for a short time
+		 * between checks
+		 */
+		SPIN_PARK,
+		/**
+		 * check the state continuously, burning a CPU while waiting. Lowest wake up
+		 * latency.
+		 */
+		BUSY_SPIN;
+
+		private static final int SPIN_TRIES = 100;
+
+		private static final long PARK_NANOS = 1000;
+
+		void idle(int spins) {
+			if (this == BUSY_SPIN || spins < SPIN_TRIES)
+				return;
+			if (this == SPIN_YIELD)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<AbstractStreamRingBuffer, RingBufferState> STATE_UPDATER = AtomicReferenceFieldUpdater
+		.newUpdater(AbstractStreamRingBuffer.class, RingBufferState.class, "state");
+
+	private final long limit;
 
 	/**
 	 * Time, in milliseconds, to wait for available space in ring buffer to write
@@ -42,9 +121,70 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 	 */
 	private final long writeTimeout;
 
+	private final ConcurrencyMode concurrencyMode;
+
+	private final WaitStrategy waitStrategy;
+
 	private volatile RingBufferState state;
 
-	private LinearBuffer linearBuffer;
+	private volatile LinearBuffer linearBuffer;
+
+	/**
+	 * Incremented before and after a capacity change, odd while the change is in
+	 * progress. Used by lock free readers to detect an inconsistent snapshot.
+	 */
+	private volatile int resizeSequence;
+
+	/**
+	 * readers parked until the size grows
+	 */
+	private final Queue<Waiter> inputWaiters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * writers parked until enough space is available
+	 */
+	private final Queue<Waiter> spaceWaiters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * serialize {@link #writeState(RingBufferState)} when states are published
+	 * without the buffer monitor
+	 */
+	private final Object stateWriteLock = new Object();
+
+	/**
+	 * {@link ConcurrencyMode#MPSC} only: writers hold the read lock while filling
+	 * a reserved range, the write lock is used to change the capacity or close.
+	 */
+	private final ReadWriteLock reservationLock;
+
+	/**
+	 * absolute offset of the end of the last reserved range
+	 */
+	private final AtomicLong reserveCursor = new AtomicLong();
+
+	/**
+	 * absolute offset of the end of the last published range, always updated after
+	 * the state.
+	 */
+	private volatile long publishCursor;
+
+	/**
+	 * linear position of absolute offset 0 for the current capacity, changed under
+	 * reservation write lock.
+	 */
+	private long reserveBase;
+
+	/**
+	 * filled ranges waiting for a previous range to be published, by start offset.
+	 * Also the monitor of the writers waiting for their range to be published.
+	 */
+	private final Map<Long, Reservation> completedReservations = new HashMap<>();
+
+	/**
+	 * set when a reserved range can not be published, the following ranges will
+	 * never be. Guarded by completedReservations.
+	 */
+	private IOException reservationFailure;
 
 	private final List<RingBufferInputStream> inputStreams = new ArrayList<>();
 
@@ -52,15 +192,37 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 
 	private RingBufferOutputStream outputStream;
 
-	protected int pendingWrite;
+	protected long pendingWrite;
+
+	private int pendingRecords;
 
-	protected boolean closeRequested;
+	protected volatile boolean closeRequested;
 
-	private boolean closed;
+	private volatile boolean closed;
 
-	protected AbstractStreamRingBuffer(int limit, long writeTimeout) {
+	protected AbstractStreamRingBuffer(long limit, long writeTimeout) {
+		this(limit, writeTimeout, ConcurrencyMode.LOCKING);
+	}
+
+	protected AbstractStreamRingBuffer(long limit, long writeTimeout, ConcurrencyMode concurrencyMode) {
+		this(limit, writeTimeout, concurrencyMode, WaitStrategy.BLOCKING);
+	}
+
+	protected AbstractStreamRingBuffer(long limit, long writeTimeout, ConcurrencyMode concurrencyMode,
+			WaitStrategy waitStrategy) {
 		this.limit = limit;
 		this.writeTimeout = writeTimeout;
+		this.concurrencyMode = Objects.requireNonNull(concurrencyMode, "concurrencyMode is null");
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy is null");
+		this.reservationLock = concurrencyMode == ConcurrencyMode.MPSC ? new ReentrantReadWriteLock() : null;
+	}
+
+	public final ConcurrencyMode concurrencyMode() {
+		return concurrencyMode;
+	}
+
+	public final WaitStrategy waitStrategy() {
+		return waitStrategy;
 	}
 
 	public RingBufferState state() {
@@ -68,11 +230,11 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 	}
 
 	@Override
-	public final int size() {
+	public final long size() {
 		return state.size();
 	}
 
-	public final int limit() {
+	public final long limit() {
 		return limit;
 	}
 
@@ -90,9 +252,37 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 
 	@Override
 	public OutputStream writer() throws IOException {
+		if (concurrencyMode == ConcurrencyMode.MPSC)
+			return createMultiProducerWriter();
 		return createWriter();
 	}
 
+	@Override
+	public ReadableByteChannel readChannel() throws IOException {
+		return createReader();
+	}
+
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		try (RingBufferInputStream is = createReader()) {
+			return is.transferTo(target, maxBytes);
+		}
+	}
+
+	@Override
+	public WritableByteChannel writeChannel() throws IOException {
+		if (concurrencyMode == ConcurrencyMode.MPSC)
+			return createMultiProducerWriter();
+		return createWriter();
+	}
+
+	protected final MultiProducerOutputStream createMultiProducerWriter() throws IOException {
+		if (concurrencyMode != ConcurrencyMode.MPSC)
+			throw new IllegalStateException("concurrency mode is " + concurrencyMode);
+		checkClose();
+		return new MultiProducerOutputStream(this);
+	}
+
 	protected final RingBufferOutputStream createWriter() throws IOException {
 		checkClose();
 		synchronized (writerMonitor) {
@@ -108,7 +298,7 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		}
 	}
 
-	private synchronized void checkClose() throws RingBufferClosedException {
+	private void checkClose() throws RingBufferClosedException {
 		if (closed || closeRequested)
 			throw new RingBufferClosedException();
 	}
@@ -124,7 +314,7 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		}
 	}
 
-	protected final int pendingWrite() {
+	protected final long pendingWrite() {
 		return pendingWrite;
 	}
 
@@ -132,17 +322,208 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		this.pendingWrite += length;
 	}
 
+	/**
+	 * Declare records written by the current writer, published with its data.
+	 */
+	protected final void addPendingRecords(int records) {
+		this.pendingRecords += records;
+	}
+
 	protected void flushWriter() throws IOException {
 		if (pendingWrite > 0) {
-			updateState(s -> s.incrementSize(pendingWrite));
+			updateState(s -> incrementSize(s, pendingWrite, pendingRecords));
 			pendingWrite = 0;
+			pendingRecords = 0;
+			awaitStateDurable();
+		}
+	}
+
+	/**
+	 * State operation used to publish written data.
+	 * 
+	 * @param records number of records declared by the writer, ignored by default
+	 */
+	protected RingBufferState incrementSize(RingBufferState state, long length, int records) {
+		return state.incrementSize(length);
+	}
+
+	/**
+	 * Reserve a range for length bytes, copy source in it and publish it once all
+	 * previously reserved ranges are published.
+	 */
+	final void writeReserved(byte[] source, int offset, int length, int records) throws IOException {
+		checkClose();
+		if (limit > 0 && length > limit)
+			throw new RingBufferOverflowException(length, limit);
+
+		while (true) {
+			reservationLock.readLock().lock();
+			try {
+				long start = reserve(length);
+				if (start >= 0) {
+					fillReserved(start, source, offset, length);
+					publishReserved(start, length, records);
+					return;
+				}
+			} finally {
+				reservationLock.readLock().unlock();
+			}
+			makeRoom(length);
+		}
+	}
+
+	/**
+	 * @return the start offset of the reserved range, or -1 if there is not enough
+	 *         space
+	 */
+	private long reserve(int length) {
+		while (true) {
+			// read order matters: publishCursor is updated after the state size, so
+			// the used space computed here can only be over estimated
+			long published = publishCursor;
+			RingBufferState current = state;
+			long reserved = reserveCursor.get();
+			long used = current.size() + reserved - published;
+			if (availableToWrite(current.capacity()) - used < length)
+				return -1;
+			if (reserveCursor.compareAndSet(reserved, reserved + length))
+				return reserved;
+		}
+	}
+
+	private void fillReserved(long start, byte[] source, int offset, int length) throws IOException {
+		long capacity = state.capacity();
+		long position = (reserveBase + start) & (capacity - 1);
+		RingPosition writePosition = new RingPosition(position, 0, capacity);
+		LinearBuffer target = linearBuffer;
+		try {
+			writePosition.execute(length, (p, l, o) -> target.write(p, source, offset + o, l));
+		} catch (IOException | RuntimeException e) {
+			// the range can not be published, nor skipped: following writers would wait
+			// for it forever
+			failReservations(e instanceof IOException ? (IOException) e : new IOException(e));
+			throw e;
+		}
+	}
+
+	/**
+	 * Publish the range and the completed ones following it if all the previous
+	 * ranges are published, then wait for the range to be published: the writer
+	 * must not succeed before its data are in a durable state.
+	 */
+	private void publishReserved(long start, int length, int records) throws IOException {
+		boolean interrupted = false;
+		synchronized (completedReservations) {
+			completedReservations.put(start, new Reservation(length, records));
+			long publishLength = 0;
+			int publishRecords = 0;
+			Reservation next;
+			while ((next = completedReservations.remove(publishCursor + publishLength)) != null) {
+				publishLength += next.length;
+				publishRecords += next.records;
+			}
+			if (publishLength > 0) {
+				long l = publishLength;
+				int r = publishRecords;
+				try {
+					updateState(s -> incrementSize(s, l, r));
+				} catch (IOException | RuntimeException e) {
+					failReservations(e instanceof IOException ? (IOException) e : new IOException(e));
+					throw e;
+				}
+				publishCursor += publishLength;
+				completedReservations.notifyAll();
+			}
+
+			// not interruptible: the range will be published by a previous writer
+			while (publishCursor < start + length) {
+				if (reservationFailure != null)
+					throw new IOException("Reserved range not published", reservationFailure);
+				try {
+					completedReservations.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		// outside of the publication lock, so that other writers can join the same
+		// durability wait
+		awaitStateDurable();
+	}
+
+	/**
+	 * Close the buffer and fail the writers waiting for their range to be
+	 * published, it will never be.
+	 */
+	private void failReservations(IOException cause) {
+		requestClose();
+		synchronized (completedReservations) {
+			if (reservationFailure == null)
+				reservationFailure = cause;
+			completedReservations.notifyAll();
+		}
+	}
+
+	/**
+	 * Called without enough space to reserve length bytes: increase capacity if
+	 * allowed, or wait for some remove.
+	 */
+	private void makeRoom(int length) throws IOException {
+		reservationLock.writeLock().lock();
+		try {
+			// no more range in progress, everything reserved is published
+			checkClose();
+			RingBufferState fromState = state();
+			long available = availableToWrite(fromState);
+			if (available >= length)
+				return;
+			long newCapacity = RingBufferUtils.nextPowerOfTwo(fromState.capacity() + length - available);
+			if (inLimit(newCapacity)) {
+				RingBufferState newState = increaseCapacity(newCapacity, fromState);
+				reserveBase = newState.writePosition() - publishCursor;
+				return;
+			}
+			if (writeTimeout < 0)
+				throw new RingBufferOverflowException(newCapacity, limit);
+		} finally {
+			reservationLock.writeLock().unlock();
+		}
+		waitForSpace(length);
+	}
+
+	private static final class Reservation {
+
+		private final int length;
+
+		private final int records;
+
+		private Reservation(int length, int records) {
+			this.length = length;
+			this.records = records;
 		}
 	}
 
 	@Override
-	public synchronized int remove(int length) throws IOException {
+	public long remove(long length) throws IOException {
 		checkClose();
-		int removed = Math.min(size(), length);
+		long removed;
+		if (concurrencyMode != ConcurrencyMode.LOCKING) {
+			removed = removeAvailable(length);
+		} else {
+			synchronized (this) {
+				removed = removeAvailable(length);
+			}
+		}
+		if (removed > 0)
+			awaitStateDurable();
+		return removed;
+	}
+
+	private long removeAvailable(long length) throws IOException {
+		// no concurrent remover, size can only grow from here
+		long removed = Math.min(size(), length);
 		if (removed > 0)
 			updateState(s -> s.remove(removed));
 		return removed;
@@ -150,13 +531,20 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 
 	protected final synchronized void removeInputStream(RingBufferInputStream is) {
 		inputStreams.remove(is);
-		notifyAll();
+		// the closed stream may be waiting
+		unparkAll(inputWaiters);
 	}
 
 	@Override
 	public void close() throws IOException {
 		requestClose();
-		waitWriterRelease();
+		if (concurrencyMode == ConcurrencyMode.MPSC) {
+			// wait for ranges in progress
+			reservationLock.writeLock().lock();
+			reservationLock.writeLock().unlock();
+		} else {
+			waitWriterRelease();
+		}
 	}
 
 	private void waitWriterRelease() throws RingBufferInterruptedException {
@@ -173,44 +561,108 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 
 	private synchronized void requestClose() {
 		closeRequested = true;
-		notifyAll();
+		unparkAll(inputWaiters);
+		unparkAll(spaceWaiters);
 	}
 
-	public final int capacity() {
+	public final long capacity() {
 		return state.capacity();
 	}
 
-	protected final boolean inLimit(int newCapacity) {
-		return limit <= 0 || newCapacity <= limit;
+	protected final boolean inLimit(long newCapacity) {
+		// a negative capacity overflowed the next power of 2
+		return newCapacity > 0 && (limit <= 0 || newCapacity <= limit);
 	}
 
 	protected final void restore(RingBufferState state, LinearBuffer linearBuffer) {
 		this.state = state;
 		this.linearBuffer = linearBuffer;
+		this.reserveBase = state.writePosition() - publishCursor;
 	}
 
-	public final synchronized RingBufferState updateState(StateOperator operator)
+	public final RingBufferState updateState(StateOperator operator)
 			throws IOException {
-		state = operator.udpateState(state);
-		writeState(state);
-		notifyAll();
-		return state;
+		if (concurrencyMode != ConcurrencyMode.LOCKING)
+			return publishState(operator);
+
+		synchronized (this) {
+			RingBufferState previous = state;
+			state = operator.udpateState(previous);
+			writeState(state);
+			signal(previous, state);
+			return state;
+		}
+	}
+
+	/**
+	 * Lock free state update, the operator can be applied more than once if
+	 * another thread published a state concurrently.
+	 */
+	private RingBufferState publishState(StateOperator operator) throws IOException {
+		RingBufferState current, next;
+		do {
+			current = state;
+			next = operator.udpateState(current);
+		} while (!STATE_UPDATER.compareAndSet(this, current, next));
+
+		synchronized (stateWriteLock) {
+			// always persist the latest state, so that a slower thread can not
+			// overwrite a newer state
+			writeState(state);
+		}
+
+		signal(current, next);
+		return next;
+	}
+
+	/**
+	 * Wake up the waiters interested in a state change: readers when the size
+	 * grows, writers when the free space reaches what they wait for.<br/>
+	 * The state is volatile and written before reading the waiter queues, a
+	 * waiter is queued before checking the state again: either it sees the new
+	 * state, or we see it waiting.
+	 */
+	private void signal(RingBufferState previous, RingBufferState next) {
+		if (next.size() > previous.size()) {
+			unparkAll(inputWaiters);
+		} else if (!spaceWaiters.isEmpty() && availableToWrite(next) > availableToWrite(previous)) {
+			for (Waiter waiter : spaceWaiters) {
+				if (waiter.wakeCondition.test(next))
+					LockSupport.unpark(waiter.thread);
+			}
+		}
+	}
+
+	private static void unparkAll(Queue<Waiter> waiters) {
+		for (Waiter waiter : waiters)
+			LockSupport.unpark(waiter.thread);
 	}
 
-	protected abstract LinearBuffer allocate(int capacity) throws IOException;
+	protected abstract LinearBuffer allocate(long capacity) throws IOException;
 
 	protected void writeState(RingBufferState state) throws IOException {}
 
+	/**
+	 * Called after a state update, without holding the buffer monitor, when the
+	 * caller must not return before its state is persisted. Nothing to wait for by
+	 * default, {@link #writeState(RingBufferState)} is synchronous.
+	 */
+	protected void awaitStateDurable() throws IOException {}
+
 	protected LinearBuffer linearBuffer() {
 		return linearBuffer;
 	}
 
+	final int resizeSequence() {
+		return resizeSequence;
+	}
+
 	protected final RingPosition writePosition(int additional) throws IOException {
 		RingBufferState pos = ensureCapacity(pendingWrite + additional);
 		return pos.writePosition(pendingWrite);
 	}
 
-	private RingBufferState ensureCapacity(int additional) throws IOException {
+	private RingBufferState ensureCapacity(long additional) throws IOException {
 		// work with a state snapshot, it can change in time as follow:
 		// - no other writer, so no other capacity change
 		// - only concurrent read or remove:
@@ -218,25 +670,14 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		// - write position will never change
 		RingBufferState fromState = state();
 		RingBufferState state = fromState;
-		int available = availableToWrite(fromState);
+		long available = availableToWrite(fromState);
 		if (available < additional) {
-			int missing = additional - available;
-			int newCapacity = RingBufferUtils.nextPowerOfTwo(fromState.capacity() + missing);
+			long missing = additional - available;
+			long newCapacity = RingBufferUtils.nextPowerOfTwo(fromState.capacity() + missing);
 			if (inLimit(newCapacity)) {
-				// increase capacity
-				LinearBuffer newBuffer = allocate(newCapacity);
-				transferTo(newBuffer, fromState);
-
-				synchronized (this) {
-					state = updateState(s -> s.updateCapacity(newCapacity, fromState));
-					linearBuffer = newBuffer;
-					inputStreams.forEach(is -> is.updateCapacity(newCapacity, fromState));
-				}
+				state = increaseCapacity(newCapacity, fromState);
 			} else if (writeTimeout >= 0) {
-				return waitFor(this::state,
-						s -> availableToWrite(s) >= additional,
-						s -> s,
-						writeTimeout, TimeUnit.MILLISECONDS);
+				return waitForSpace(additional);
 			} else {
 				throw new RingBufferOverflowException(newCapacity, limit);
 			}
@@ -244,18 +685,133 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		return state;
 	}
 
-	private int availableToWrite(RingBufferState state) {
-		if (limit > 0) {
-			// capacity can be over current limit for persistent buffer that have been
-			// reconfigured
-			return Math.min(limit, state.capacity()) - state.size();
+	/**
+	 * Must be called by the only thread writing to the linear buffer.
+	 */
+	private RingBufferState increaseCapacity(long newCapacity, RingBufferState fromState) throws IOException {
+		LinearBuffer newBuffer = allocate(newCapacity);
+		transferTo(newBuffer, fromState);
+
+		LinearBuffer replaced = linearBuffer;
+		RingBufferState newState;
+		synchronized (this) {
+			resizeSequence++;
+			try {
+				newState = updateState(s -> s.updateCapacity(newCapacity, fromState));
+				linearBuffer = newBuffer;
+				inputStreams.forEach(is -> is.updateCapacity(newCapacity, fromState));
+			} finally {
+				resizeSequence++;
+			}
+		}
+		if (replaced != newBuffer)
+			releaseReplaced(replaced);
+		return newState;
+	}
+
+	/**
+	 * Reduce the capacity without moving any data, only possible while all the
+	 * buffer content is located before newCapacity. Like a capacity increase, it
+	 * requires to be the only writer: nothing is done if a writer is in use.
+	 * 
+	 * @return true if the capacity has been changed
+	 */
+	protected final boolean decreaseCapacity(long newCapacity) throws IOException {
+		if (concurrencyMode == ConcurrencyMode.MPSC) {
+			if (!reservationLock.writeLock().tryLock())
+				return false;
+			try {
+				return decreaseCapacityExclusively(newCapacity);
+			} finally {
+				reservationLock.writeLock().unlock();
+			}
+		}
+
+		RingBufferOutputStream exclusiveWriter;
+		synchronized (writerMonitor) {
+			if (outputStream != null)
+				return false;
+			exclusiveWriter = outputStream = new RingBufferOutputStream(this);
+		}
+		try {
+			return decreaseCapacityExclusively(newCapacity);
+		} finally {
+			releaseWriter(exclusiveWriter);
 		}
-		return state.capacity() - state.size();
+	}
+
+	private boolean decreaseCapacityExclusively(long newCapacity) throws IOException {
+		if (closed())
+			return false;
+		LinearBuffer replaced = linearBuffer;
+		LinearBuffer newBuffer;
+		synchronized (this) {
+			RingBufferState fromState = state();
+			// size can only decrease concurrently, and write position does not move
+			if (newCapacity >= fromState.capacity() || !RingBufferUtils.isPowerOfTwo(newCapacity)
+					|| fromState.position().position() + fromState.size() >= newCapacity)
+				return false;
+
+			newBuffer = reallocate(linearBuffer, newCapacity);
+			resizeSequence++;
+			try {
+				// data are not moved: positions are kept, only the capacity is changed
+				updateState(s -> s.withCapacity(newCapacity));
+				linearBuffer = newBuffer;
+				inputStreams.forEach(is -> is.updateCapacity(newCapacity, fromState));
+				reserveBase = state.writePosition() - publishCursor;
+			} finally {
+				resizeSequence++;
+			}
+		}
+		if (replaced != newBuffer) {
+			releaseReplaced(replaced);
+			capacityDecreased(newCapacity, replaced);
+		} else {
+			capacityDecreased(newCapacity, null);
+		}
+		return true;
+	}
+
+	/**
+	 * Called by {@link #decreaseCapacity(long)} to get the linear buffer used with
+	 * the new capacity, the current one is kept by default.
+	 */
+	protected LinearBuffer reallocate(LinearBuffer linearBuffer, long newCapacity) throws IOException {
+		return linearBuffer;
+	}
+
+	/**
+	 * Called once the capacity has been decreased, while still excluding any
+	 * writer.
+	 * 
+	 * @param replaced the linear buffer replaced by
+	 *                 {@link #reallocate(LinearBuffer, long)}, already given to
+	 *                 {@link #releaseReplaced(LinearBuffer)}, null if kept
+	 */
+	protected void capacityDecreased(long newCapacity, LinearBuffer replaced) throws IOException {}
+
+	/**
+	 * Called once a capacity change replaced the linear buffer, without holding
+	 * the buffer monitor: readers can still be using the replaced one. They read
+	 * again from the new one if it is released under them. Nothing to release by
+	 * default.
+	 */
+	protected void releaseReplaced(LinearBuffer replaced) throws IOException {}
+
+	private long availableToWrite(RingBufferState state) {
+		return availableToWrite(state.capacity()) - state.size();
+	}
+
+	private long availableToWrite(long capacity) {
+		// capacity can be over current limit for persistent buffer that have been
+		// reconfigured
+		return limit > 0 ? Math.min(limit, capacity) : capacity;
 	}
 
 	private void transferTo(LinearBuffer target, RingBufferState fromState) throws IOException {
-		int startPosition = fromState.position().position();
-		int writePosition = fromState.writePosition();
+		long startPosition = fromState.position().position();
+		long writePosition = fromState.writePosition();
 		if (fromState.wrapped()) {
 			// wrapped, copy end of buffer to other buffer at same position
 			linearBuffer.copyTo(target, startPosition, startPosition, fromState.capacity() - startPosition);
@@ -268,36 +824,142 @@ public abstract class AbstractStreamRingBuffer implements StreamRingBuffer, Clos
 		}
 	}
 
-	protected final synchronized <C, T> T waitFor(Supplier<C> contextSupplier,
+	/**
+	 * Wait for data to read: woken up when the size grows, or when the buffer or
+	 * a reader is closed.
+	 */
+	protected final <C, T> T waitForInput(Supplier<C> contextSupplier,
 			Predicate<C> contextPredicate, IOFunction<C, T> contextHandler,
 			long timeout, TimeUnit timeUnit)
 			throws IOException {
+		return waitFor(inputWaiters, null, contextSupplier, contextPredicate, contextHandler, timeout, timeUnit,
+				true);
+	}
 
-		C last = contextSupplier.get();
+	/**
+	 * Wait for a state matching the predicate, woken up as the readers are.
+	 * 
+	 * @return the matching state, or null if none was published before the
+	 *         timeout (wait forever if timeout <= 0)
+	 */
+	protected final RingBufferState awaitInputState(Predicate<RingBufferState> predicate, long timeout,
+			TimeUnit timeUnit) throws IOException {
+		RingBufferState current = state;
+		if (predicate.test(current))
+			return current;
+		return waitFor(inputWaiters, null, this::state, predicate, s -> s, timeout, timeUnit, false);
+	}
 
-		long remaining = timeUnit.toMillis(timeout);
-		long timeLimit = System.currentTimeMillis() + remaining;
-		while (!closed() && remaining >= 0 && !contextPredicate.test(last)) {
-			try {
-				wait(remaining);
-			} catch (InterruptedException e) {
+	/**
+	 * Wait for length bytes of free space: woken up only by the state changes
+	 * making that space available.
+	 */
+	private RingBufferState waitForSpace(long length) throws IOException {
+		Predicate<RingBufferState> hasSpace = s -> availableToWrite(s) >= length;
+		return waitFor(spaceWaiters, hasSpace, this::state, hasSpace, s -> s, writeTimeout, TimeUnit.MILLISECONDS,
+				true);
+	}
+
+	/**
+	 * @param failOnTimeout throw a {@link RingBufferTimeoutException} on timeout,
+	 *                      return null otherwise
+	 */
+	private <C, T> T waitFor(Queue<Waiter> waiters, Predicate<RingBufferState> wakeCondition,
+			Supplier<C> contextSupplier, Predicate<C> contextPredicate, IOFunction<C, T> contextHandler,
+			long timeout, TimeUnit timeUnit, boolean failOnTimeout)
+			throws IOException {
+		if (waitStrategy == WaitStrategy.BLOCKING)
+			return park(waiters, wakeCondition, contextSupplier, contextPredicate, contextHandler, timeout,
+					timeUnit, failOnTimeout);
+
+		// spin without the monitor, so that publishers are not blocked
+		long timeoutNanos = timeUnit.toNanos(timeout);
+		long deadline = System.nanoTime() + timeoutNanos;
+		int spins = 0;
+		while (!closed() && !contextPredicate.test(contextSupplier.get())) {
+			if (timeoutNanos > 0 && System.nanoTime() - deadline >= 0)
+				return timedOut(timeout, timeUnit, failOnTimeout);
+			if (Thread.interrupted())
 				throw new RingBufferInterruptedException();
+			waitStrategy.idle(spins);
+			// capped, a long wait would overflow it back to spinning
+			if (spins < WaitStrategy.SPIN_TRIES)
+				spins++;
+		}
+
+		// ready or closed, let the handler run under the monitor as for a blocking
+		// wait (it will only park if the context changed meanwhile)
+		long remaining = timeoutNanos > 0 ? Math.max(1, deadline - System.nanoTime()) : 0;
+		return park(waiters, wakeCondition, contextSupplier, contextPredicate, contextHandler, remaining,
+				TimeUnit.NANOSECONDS, failOnTimeout);
+	}
+
+	/**
+	 * Park until the context is ready, the handler is called holding the buffer
+	 * monitor.
+	 */
+	private <C, T> T park(Queue<Waiter> waiters, Predicate<RingBufferState> wakeCondition,
+			Supplier<C> contextSupplier, Predicate<C> contextPredicate, IOFunction<C, T> contextHandler,
+			long timeout, TimeUnit timeUnit, boolean failOnTimeout)
+			throws IOException {
+		long timeoutNanos = timeUnit.toNanos(timeout);
+		long deadline = System.nanoTime() + timeoutNanos;
+		Waiter waiter = null;
+		while (true) {
+			synchronized (this) {
+				if (closed())
+					throw new RingBufferClosedException();
+				C last = contextSupplier.get();
+				if (contextPredicate.test(last))
+					return contextHandler.apply(last);
 			}
-			last = contextSupplier.get();
-			if (remaining != 0)
-				remaining = timeLimit - System.currentTimeMillis();
+
+			long remaining = deadline - System.nanoTime();
+			if (timeoutNanos > 0 && remaining <= 0)
+				return timedOut(timeout, timeUnit, failOnTimeout);
+
+			if (waiter == null)
+				waiter = new Waiter(wakeCondition);
+			waiters.add(waiter);
+			try {
+				// check again once queued, a publisher may have missed us
+				if (!closed() && !contextPredicate.test(contextSupplier.get())) {
+					if (timeoutNanos > 0)
+						LockSupport.parkNanos(this, remaining);
+					else
+						LockSupport.park(this);
+				}
+			} finally {
+				waiters.remove(waiter);
+			}
+			if (Thread.interrupted())
+				throw new RingBufferInterruptedException();
 		}
-		
-		if (closed())
-			throw new RingBufferClosedException();
+	}
+
+	private static <T> T timedOut(long timeout, TimeUnit timeUnit, boolean failOnTimeout)
+			throws RingBufferTimeoutException {
+		if (failOnTimeout)
+			throw new RingBufferTimeoutException("timed out after " + timeout + " " + timeUnit);
+		return null;
+	}
 
-		if (contextPredicate.test(last))
-			return contextHandler.apply(last);
+	private static final class Waiter {
 
-		throw new RingBufferTimeoutException("timed out after " + timeout + " " + timeUnit);
+		private final Thread thread = Thread.currentThread();
+
+		/**
+		 * state condition checked before waking up this waiter, null to wake it up on
+		 * any signal
+		 */
+		private final Predicate<RingBufferState> wakeCondition;
+
+		private Waiter(Predicate<RingBufferState> wakeCondition) {
+			this.wakeCondition = wakeCondition;
+		}
 	}
 
-	private synchronized boolean closed() {
+	private boolean closed() {
 		return closed || closeRequested;
 	}
 
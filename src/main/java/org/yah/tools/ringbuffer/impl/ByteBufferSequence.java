@@ -0,0 +1,74 @@
+package org.yah.tools.ringbuffer.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor over the remaining bytes of a sequence of {@link ByteBuffer}, used by
+ * vectored reads and writes to split the sequence at the ring wrap point.
+ */
+final class ByteBufferSequence {
+
+	@FunctionalInterface
+	interface BuffersAction {
+		void apply(ByteBuffer[] buffers) throws IOException;
+	}
+
+	private final ByteBuffer[] buffers;
+
+	private final int[] positions;
+
+	private int index;
+
+	ByteBufferSequence(ByteBuffer[] buffers, int offset, int length) {
+		this.buffers = Arrays.copyOfRange(buffers, offset, offset + length);
+		this.positions = new int[length];
+		for (int i = 0; i < length; i++)
+			positions[i] = this.buffers[i].position();
+	}
+
+	static long remaining(ByteBuffer[] buffers, int offset, int length) {
+		long remaining = 0;
+		for (int i = offset; i < offset + length; i++)
+			remaining += buffers[i].remaining();
+		return remaining;
+	}
+
+	long remaining() {
+		return remaining(buffers, index, buffers.length - index);
+	}
+
+	/**
+	 * Apply the action to the buffers holding the next length bytes, the last one
+	 * limited to the bytes it holds in this range.
+	 */
+	void apply(int length, BuffersAction action) throws IOException {
+		int first = index;
+		int last = first;
+		int remaining = length;
+		while (buffers[last].remaining() < remaining) {
+			remaining -= buffers[last].remaining();
+			last++;
+		}
+		ByteBuffer lastBuffer = buffers[last];
+		int limit = lastBuffer.limit();
+		lastBuffer.limit(lastBuffer.position() + remaining);
+		try {
+			action.apply(Arrays.copyOfRange(buffers, first, last + 1));
+		} finally {
+			lastBuffer.limit(limit);
+		}
+		index = lastBuffer.hasRemaining() ? last : last + 1;
+	}
+
+	/**
+	 * Restore the buffers positions to their initial values, to read again
+	 */
+	void rewind() {
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i].position(positions[i]);
+		index = 0;
+	}
+
+}
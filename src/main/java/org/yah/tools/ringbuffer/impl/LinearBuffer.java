@@ -1,13 +1,72 @@
 package org.yah.tools.ringbuffer.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 public interface LinearBuffer {
 
-	void read(int position, byte[] target, int offset, int length) throws IOException;
+	void read(long position, byte[] target, int offset, int length) throws IOException;
 
-	void write(int position, byte[] source, int offset, int length) throws IOException;
+	void write(long position, byte[] source, int offset, int length) throws IOException;
 
-	void copyTo(LinearBuffer target, int position, int targetPosition, int length) throws IOException;
+	/**
+	 * Read target remaining bytes from position, target position is advanced
+	 */
+	void read(long position, ByteBuffer target) throws IOException;
 
-}
\ No newline at end of file
+	/**
+	 * Write source remaining bytes at position, source position is advanced
+	 */
+	void write(long position, ByteBuffer source) throws IOException;
+
+	/**
+	 * Scattering read: fill the targets remaining bytes, in order, from position.
+	 * Done one target at a time unless the buffer supports vectored I/O.
+	 */
+	default void read(long position, ByteBuffer[] targets) throws IOException {
+		for (ByteBuffer target : targets) {
+			int length = target.remaining();
+			read(position, target);
+			position += length;
+		}
+	}
+
+	/**
+	 * Gathering write: write the sources remaining bytes, in order, from position.
+	 * Done one source at a time unless the buffer supports vectored I/O.
+	 */
+	default void write(long position, ByteBuffer[] sources) throws IOException {
+		for (ByteBuffer source : sources) {
+			int length = source.remaining();
+			write(position, source);
+			position += length;
+		}
+	}
+
+	/**
+	 * Write up to length bytes from position to target, stop early if target does
+	 * not accept more bytes (non blocking channel). Done through an intermediate
+	 * buffer unless the buffer can write its content directly.
+	 * 
+	 * @return the number of bytes written to target
+	 */
+	default long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 64 * 1024));
+		long done = 0;
+		while (done < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - done));
+			read(position + done, buffer);
+			buffer.flip();
+			int written = RingBufferUtils.writeFully(buffer, target);
+			done += written;
+			if (buffer.hasRemaining())
+				break;
+		}
+		return done;
+	}
+
+	void copyTo(LinearBuffer target, long position, long targetPosition, long length) throws IOException;
+
+}
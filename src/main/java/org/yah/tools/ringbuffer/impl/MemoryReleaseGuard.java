@@ -0,0 +1,94 @@
+package org.yah.tools.ringbuffer.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+
+/**
+ * Count the operations in progress on some native memory (direct buffer or
+ * file mapping), so that it is freed once released and no operation uses it
+ * anymore: freeing it under a running read or write would crash the JVM.
+ */
+public final class MemoryReleaseGuard {
+
+	/**
+	 * set in users once released
+	 */
+	private static final int RELEASED = Integer.MIN_VALUE;
+
+	private final AtomicInteger users = new AtomicInteger();
+
+	private final Runnable free;
+
+	private final CountDownLatch freed = new CountDownLatch(1);
+
+	public MemoryReleaseGuard(Runnable free) {
+		this.free = free;
+	}
+
+	/**
+	 * Start an operation, to be ended with {@link #exit()}
+	 * 
+	 * @throws RingBufferClosedException if the memory is released
+	 */
+	public void enter() throws RingBufferClosedException {
+		if (!tryEnter())
+			throw new RingBufferClosedException();
+	}
+
+	/**
+	 * @return false if the memory is released, the operation must not be done
+	 */
+	public boolean tryEnter() {
+		int current;
+		do {
+			current = users.get();
+			if ((current & RELEASED) != 0)
+				return false;
+		} while (!users.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	public void exit() {
+		if (users.decrementAndGet() == RELEASED)
+			free();
+	}
+
+	/**
+	 * Free the memory now if not used, or when the last operation in progress
+	 * ends.
+	 */
+	public void release() {
+		int previous = users.getAndUpdate(u -> u | RELEASED);
+		if (previous == 0)
+			free();
+	}
+
+	/**
+	 * Wait for the memory to be freed after {@link #release()}, once the last
+	 * operation in progress ends.
+	 */
+	public void awaitFreed() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				freed.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void free() {
+		try {
+			free.run();
+		} finally {
+			freed.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.yah.tools.ringbuffer.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+
+/**
+ * {@link OutputStream} used by {@link ConcurrencyMode#MPSC} ring buffers.<br/>
+ * Data are accumulated locally until {@link #flush()} or {@link #close()},
+ * then written to a range of the ring reserved for them, so that data written
+ * between two flushes are always contiguous in the ring buffer and never
+ * interleaved with other writers data.<br/>
+ * The flushed data can also be handed to another {@link RecordSink}, as done by
+ * write behind buffers.<br/>
+ * Any number of instances can be used concurrently, but an instance is not
+ * thread safe itself.
+ */
+public final class MultiProducerOutputStream extends OutputStream implements WritableByteChannel {
+
+	/**
+	 * Receive the data accumulated between two flushes
+	 */
+	public interface RecordSink {
+		void write(byte[] source, int offset, int length, int records) throws IOException;
+	}
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final RecordSink sink;
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+	private int count;
+
+	private int records;
+
+	private boolean closed;
+
+	MultiProducerOutputStream(AbstractStreamRingBuffer ringBuffer) {
+		this(ringBuffer::writeReserved);
+	}
+
+	public MultiProducerOutputStream(RecordSink sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] source, int offset, int length) throws IOException {
+		if (length == 0)
+			return;
+		RingBufferUtils.validateBufferParams(source, offset, length);
+		ensureCapacity(length);
+		System.arraycopy(source, offset, buffer, count, length);
+		count += length;
+	}
+
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		int length = source.remaining();
+		ensureCapacity(length);
+		source.get(buffer, count, length);
+		count += length;
+		return length;
+	}
+
+	/**
+	 * Declare records written since last flush, published with the data.
+	 */
+	public void addRecords(int count) {
+		records += count;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (count > 0) {
+			sink.write(buffer, 0, count, records);
+			count = 0;
+			records = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			flush();
+		}
+	}
+
+	private void ensureCapacity(int additional) {
+		int required = count + additional;
+		if (required > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MultiProducerOutputStream [sink=%s, pending=%d]", sink, count);
+	}
+
+}
@@ -2,11 +2,17 @@ package org.yah.tools.ringbuffer.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
 import org.yah.tools.ringbuffer.impl.RingBufferUtils.IOFunction;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferConcurrentModificationException;
@@ -15,24 +21,39 @@ import org.yah.tools.ringbuffer.impl.exceptions.RingBufferConcurrentModification
  * {@link InputStream} used to read from the eldest element of the ring buffer
  * to the newest (FIFO).<br/>
  * This can be used concurrently with any writer threads. But it's not thread
- * safe, so only one thread can use this {@link InputStream} at the same time.
- * 
+ * safe, so only one thread can use this {@link InputStream} at the same time.<br/>
+ * Also usable as a {@link ReadableByteChannel} to read directly into a
+ * (direct) {@link ByteBuffer} without intermediate heap array, or as a
+ * {@link ScatteringByteChannel} to fill several buffers with a single vectored
+ * read on each side of the wrap point.
  */
-public class RingBufferInputStream extends InputStream {
+public class RingBufferInputStream extends InputStream implements ScatteringByteChannel {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferInputStream.class);
 
+	private static final AtomicReferenceFieldUpdater<RingBufferInputStream, RingPosition> POSITION_UPDATER = AtomicReferenceFieldUpdater
+		.newUpdater(RingBufferInputStream.class, RingPosition.class, "ringPosition");
+
 	private final byte[] singleByte = new byte[1];
 
 	private final AbstractStreamRingBuffer ringBuffer;
 
-	private RingPosition ringPosition;
+	private final boolean lockFree;
 
-	private boolean closed;
+	/**
+	 * Updated by this reader, or by the writer when the buffer capacity changes.
+	 */
+	private volatile RingPosition ringPosition;
+
+	/**
+	 * volatile for spinning readers, the stream can be closed by another thread
+	 */
+	private volatile boolean closed;
 
 	public RingBufferInputStream(AbstractStreamRingBuffer ringBuffer) {
 		this.ringBuffer = ringBuffer;
 		this.ringPosition = ringBuffer.state().position();
+		this.lockFree = ringBuffer.concurrencyMode() != ConcurrencyMode.LOCKING;
 	}
 
 	@Override
@@ -45,24 +66,56 @@ public class RingBufferInputStream extends InputStream {
 		if (closed)
 			throw new RingBufferClosedException();
 		
+		if (lockFree) {
+			while (true) {
+				ReadSnapshot snapshot = snapshot();
+				long skipped = Math.min(n, checkAvailable(snapshot));
+				if (POSITION_UPDATER.compareAndSet(this, snapshot.position, snapshot.position.advance(skipped)))
+					return skipped;
+			}
+		}
+
 		ReadSnapshot snapshot = snapshot();
-		int available = snapshot.available();
-		if (available < 0)
-			throw new RingBufferConcurrentModificationException(snapshot.toString());
-		int skipped = Integer.min((int) n, available);
+		long skipped = Math.min(n, checkAvailable(snapshot));
 		synchronized (ringBuffer) {
 			ringPosition = ringPosition.advance(skipped);
 		}
 		return skipped;
 	}
 
+	/**
+	 * A linear buffer replaced by a capacity change is released once the reads in
+	 * progress are done, reads started afterward must be done again from the new
+	 * one.
+	 * 
+	 * @throws RingBufferClosedException if the snapshot buffer is still the
+	 *                                   current one: the ring buffer is closed
+	 */
+	private void checkReplaced(ReadSnapshot snapshot, RingBufferClosedException e) throws RingBufferClosedException {
+		if (closed || snapshot.linearBuffer == ringBuffer.linearBuffer())
+			throw e;
+		LOGGER.trace("linear buffer released after a capacity change, read again {}", snapshot);
+	}
+
+	private static long checkAvailable(ReadSnapshot snapshot) throws RingBufferConcurrentModificationException {
+		long available = snapshot.available();
+		if (available < 0)
+			throw new RingBufferConcurrentModificationException(snapshot.toString());
+		return available;
+	}
+
 	public RingPosition ringPosition() {
 		return ringPosition;
 	}
 
 	@Override
 	public int available() throws IOException {
-		return Math.max(0, snapshot().available());
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, snapshot().available()));
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
 	}
 
 	@Override
@@ -88,7 +141,7 @@ public class RingBufferInputStream extends InputStream {
 
 	public <T> T awaitInput(IOFunction<ReadSnapshot, T> handler, long timeout, TimeUnit timeUnit)
 			throws TimeoutException, IOException {
-		return ringBuffer.waitFor(this::snapshot,
+		return ringBuffer.waitForInput(this::snapshot,
 				s -> closed || s.available() != 0, handler,
 				timeout, timeUnit);
 	}
@@ -99,24 +152,146 @@ public class RingBufferInputStream extends InputStream {
 		if (length == 0)
 			return 0;
 
-		ReadSnapshot snapshot;
-		int read;
 		// read without lock, and check afterward if we have read some concurrently
 		// modified data
-		do {
-			snapshot = snapshot();
+		while (true) {
+			ReadSnapshot snapshot = snapshot();
 			// ensure that our current position has not been deleted
 			if (snapshot.removed())
 				throw new RingBufferConcurrentModificationException(snapshot.toString());
 
 			// get size to read, either requested length, or only what's available
-			read = Integer.min(length, snapshot.available());
+			int read = (int) Math.min(length, snapshot.available());
 			if (read == 0)
+				return 0;
+
+			try {
+				snapshot.read(target, offset, read);
+			} catch (RingBufferClosedException e) {
+				checkReplaced(snapshot, e);
+				continue;
+			}
+			if (advance(snapshot, read))
+				return read;
+		}
+	}
+
+	/**
+	 * Read up to target remaining bytes, without blocking.
+	 * 
+	 * @return the number of bytes read, 0 if none is available
+	 */
+	@Override
+	public int read(ByteBuffer target) throws IOException {
+		if (closed)
+			throw new RingBufferClosedException();
+		int length = target.remaining();
+		if (length == 0)
+			return 0;
+
+		int start = target.position();
+		// same as read(byte[]), but target must be rewound if we read stale data
+		while (true) {
+			target.position(start);
+			ReadSnapshot snapshot = snapshot();
+			if (snapshot.removed())
+				throw new RingBufferConcurrentModificationException(snapshot.toString());
+
+			int read = (int) Math.min(length, snapshot.available());
+			if (read == 0)
+				return 0;
+
+			try {
+				snapshot.read(target, read);
+			} catch (RingBufferClosedException e) {
+				checkReplaced(snapshot, e);
+				continue;
+			}
+			if (advance(snapshot, read))
+				return read;
+		}
+	}
+
+	/**
+	 * Read up to targets remaining bytes, without blocking.
+	 * 
+	 * @return the number of bytes read, 0 if none is available
+	 */
+	@Override
+	public long read(ByteBuffer[] targets, int offset, int length) throws IOException {
+		if (closed)
+			throw new RingBufferClosedException();
+		long remaining = ByteBufferSequence.remaining(targets, offset, length);
+		if (remaining == 0)
+			return 0;
+
+		ByteBufferSequence sequence = new ByteBufferSequence(targets, offset, length);
+		// same as read(ByteBuffer), targets are rewound if we read stale data
+		while (true) {
+			sequence.rewind();
+			ReadSnapshot snapshot = snapshot();
+			if (snapshot.removed())
+				throw new RingBufferConcurrentModificationException(snapshot.toString());
+
+			int read = (int) Math.min(Math.min(remaining, Integer.MAX_VALUE), snapshot.available());
+			if (read == 0)
+				return 0;
+
+			try {
+				snapshot.read(sequence, read);
+			} catch (RingBufferClosedException e) {
+				checkReplaced(snapshot, e);
+				continue;
+			}
+			if (advance(snapshot, read))
+				return read;
+		}
+	}
+
+	@Override
+	public long read(ByteBuffer[] targets) throws IOException {
+		return read(targets, 0, targets.length);
+	}
+
+	/**
+	 * Write up to maxBytes available bytes to target, without blocking for input,
+	 * and advance past them. File backed buffers write from the file (or its
+	 * mapping) to target without intermediate copy. Stops early if target does
+	 * not accept more bytes.<br/>
+	 * Unlike reads, bytes written to target can not be read again: a concurrent
+	 * remove or capacity change of the transferred range fails with
+	 * {@link RingBufferConcurrentModificationException}.
+	 * 
+	 * @return the number of bytes written to target
+	 */
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		if (closed)
+			throw new RingBufferClosedException();
+		long transferred = 0;
+		while (transferred < maxBytes) {
+			ReadSnapshot snapshot = snapshot();
+			if (snapshot.removed())
+				throw new RingBufferConcurrentModificationException(snapshot.toString());
+
+			int length = (int) Math.min(Math.min(maxBytes - transferred, Integer.MAX_VALUE), snapshot.available());
+			if (length == 0)
 				break;
 
-			snapshot.read(target, offset, read);
-		} while (!advance(snapshot, read));
-		return read;
+			int written;
+			try {
+				written = snapshot.transferTo(target, length);
+			} catch (RingBufferClosedException e) {
+				// nothing written, the whole range is transferred again
+				checkReplaced(snapshot, e);
+				continue;
+			}
+			if (written > 0 && !advance(snapshot, written))
+				throw new RingBufferConcurrentModificationException(snapshot.toString());
+			transferred += written;
+			if (written < length)
+				break;
+		}
+		return transferred;
 	}
 
 	/**
@@ -135,6 +310,9 @@ public class RingBufferInputStream extends InputStream {
 	}
 
 	private boolean advance(ReadSnapshot snapshot, int length) throws RingBufferConcurrentModificationException {
+		if (lockFree)
+			return advanceLockFree(snapshot, length);
+
 		synchronized (ringBuffer) {
 			// check the current snapshot with the one used to make the copy from the buffer
 			// When we where reading from snapshot buffer, the buffer could have been
@@ -163,6 +341,22 @@ public class RingBufferInputStream extends InputStream {
 		}
 	}
 
+	private boolean advanceLockFree(ReadSnapshot snapshot, int length)
+			throws RingBufferConcurrentModificationException {
+		ReadSnapshot actualSnapshot = snapshot();
+		if (actualSnapshot.state.capacity() != snapshot.state.capacity()) {
+			// capacity changed while reading, our position has been moved, read again
+			LOGGER.trace("concurrent resize from {} to {}", snapshot, actualSnapshot);
+			return false;
+		}
+
+		if (actualSnapshot.state.position.after(snapshot.position))
+			throw new RingBufferConcurrentModificationException(snapshot.toString());
+
+		// fails if a capacity change moved our position since the snapshot
+		return POSITION_UPDATER.compareAndSet(this, snapshot.position, snapshot.position.advance(length));
+	}
+
 	/**
 	 * if a snapshot has potentially been updated by another writer, return true
 	 * 
@@ -172,17 +366,29 @@ public class RingBufferInputStream extends InputStream {
 		if (snapshot.state.capacity() != actualSnapshot.state.capacity() && snapshot.state.wrapped()) {
 			// capacity changed on wrapped buffer, check if we were in the 'conflicting'
 			// zone (start of the original buffer that have been moved to the end)
-			int endPosition = snapshot.position.wrap(snapshot.position.position() + length);
+			long endPosition = snapshot.position.wrap(snapshot.position.position() + length);
 			return endPosition >= 0 && endPosition <= snapshot.state.writePosition();
 		}
 		return false;
 	}
 
-	public void updateCapacity(int newCapacity, RingBufferState fromState) {
-		ringPosition = ringPosition.updateCapacity(newCapacity, fromState);
+	public void updateCapacity(long newCapacity, RingBufferState fromState) {
+		// a lock free reader can advance concurrently
+		POSITION_UPDATER.updateAndGet(this, p -> p.updateCapacity(newCapacity, fromState));
 	}
 
 	private ReadSnapshot snapshot() {
+		if (lockFree) {
+			// seqlock: consistent if no capacity change started or ended while reading
+			int sequence = ringBuffer.resizeSequence();
+			if ((sequence & 1) == 0) {
+				LinearBuffer linearBuffer = ringBuffer.linearBuffer();
+				RingBufferState state = ringBuffer.state();
+				RingPosition position = ringPosition;
+				if (ringBuffer.resizeSequence() == sequence)
+					return new ReadSnapshot(linearBuffer, state, position);
+			}
+		}
 		synchronized (ringBuffer) {
 			return new ReadSnapshot(ringBuffer.linearBuffer(), ringBuffer.state(), ringPosition);
 		}
@@ -219,7 +425,42 @@ public class RingBufferInputStream extends InputStream {
 			position.execute(length, (p, l, o) -> linearBuffer.read(p, target, offset + o, l));
 		}
 
-		public int available() {
+		private void read(ByteBuffer target, int length) throws IOException {
+			int limit = target.limit();
+			try {
+				position.execute(length, (p, l, o) -> {
+					target.limit(target.position() + l);
+					linearBuffer.read(p, target);
+				});
+			} finally {
+				target.limit(limit);
+			}
+		}
+
+		private void read(ByteBufferSequence targets, int length) throws IOException {
+			position.execute(length, (p, l, o) -> targets.apply(l, buffers -> linearBuffer.read(p, buffers)));
+		}
+
+		/**
+		 * @throws RingBufferClosedException only if nothing was written, the
+		 *                                   partial transfer is returned otherwise
+		 */
+		private int transferTo(WritableByteChannel target, int length) throws IOException {
+			int[] written = { 0 };
+			try {
+				position.execute(length, (p, l, o) -> {
+					// previous range not fully accepted by target
+					if (written[0] == o)
+						written[0] += (int) linearBuffer.transferTo(p, l, target);
+				});
+			} catch (RingBufferClosedException e) {
+				if (written[0] == 0)
+					throw e;
+			}
+			return written[0];
+		}
+
+		public long available() {
 			return state.availableToRead(position);
 		}
 
@@ -2,6 +2,9 @@ package org.yah.tools.ringbuffer.impl;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.yah.tools.ringbuffer.StreamRingBuffer;
 
@@ -17,13 +20,18 @@ import org.yah.tools.ringbuffer.StreamRingBuffer;
  * {@link StreamRingBuffer} will wait for the previous one to be closed in order to
  * give a new one.
  * </p>
+ * Also usable as a {@link WritableByteChannel} to write directly from a
+ * (direct) {@link ByteBuffer}, or as a {@link GatheringByteChannel} to write
+ * several buffers with a single vectored write on each side of the wrap point.
  */
-public final class RingBufferOutputStream extends OutputStream {
+public final class RingBufferOutputStream extends OutputStream implements GatheringByteChannel {
 
 	private final byte[] singleByte = new byte[1];
 
 	protected final AbstractStreamRingBuffer ringBuffer;
 
+	private boolean closed;
+
 	public RingBufferOutputStream(AbstractStreamRingBuffer ringBuffer) {
 		this.ringBuffer = ringBuffer;
 	}
@@ -47,6 +55,58 @@ public final class RingBufferOutputStream extends OutputStream {
 		ringBuffer.addPendingWrite(length);
 	}
 
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		int length = source.remaining();
+		if (length == 0)
+			return 0;
+
+		RingPosition writePosition = ringBuffer.writePosition(length);
+		LinearBuffer linearBuffer = ringBuffer.linearBuffer();
+		int limit = source.limit();
+		try {
+			writePosition.execute(length, (p, l, o) -> {
+				source.limit(source.position() + l);
+				linearBuffer.write(p, source);
+			});
+		} finally {
+			source.limit(limit);
+		}
+
+		ringBuffer.addPendingWrite(length);
+		return length;
+	}
+
+	@Override
+	public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+		long total = ByteBufferSequence.remaining(sources, offset, length);
+		if (total == 0)
+			return 0;
+		if (total > Integer.MAX_VALUE) {
+			for (int i = offset; i < offset + length; i++)
+				write(sources[i]);
+			return total;
+		}
+
+		RingPosition writePosition = ringBuffer.writePosition((int) total);
+		LinearBuffer linearBuffer = ringBuffer.linearBuffer();
+		ByteBufferSequence sequence = new ByteBufferSequence(sources, offset, length);
+		writePosition.execute((int) total, (p, l, o) -> sequence.apply(l, buffers -> linearBuffer.write(p, buffers)));
+
+		ringBuffer.addPendingWrite((int) total);
+		return total;
+	}
+
+	@Override
+	public long write(ByteBuffer[] sources) throws IOException {
+		return write(sources, 0, sources.length);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
 	@Override
 	public void flush() throws IOException {
 		ringBuffer.flushWriter();
@@ -54,8 +114,14 @@ public final class RingBufferOutputStream extends OutputStream {
 
 	@Override
 	public void close() throws IOException {
-		flush();
-		ringBuffer.releaseWriter(this);
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flush();
+		} finally {
+			ringBuffer.releaseWriter(this);
+		}
 	}
 
 	@Override
@@ -4,13 +4,13 @@ public class RingBufferState {
 
 	protected final RingPosition position;
 
-	protected final int size;
+	protected final long size;
 
-	public RingBufferState(int position, long cycle, int capacity, int size) {
+	public RingBufferState(long position, long cycle, long capacity, long size) {
 		this(new RingPosition(position, cycle, capacity), size);
 	}
 
-	public RingBufferState(RingPosition position, int size) {
+	public RingBufferState(RingPosition position, long size) {
 		this.position = position;
 		this.size = size;
 	}
@@ -20,17 +20,17 @@ public class RingBufferState {
 		this.size = from.size;
 	}
 
-	public RingBufferState(int capacity) {
+	public RingBufferState(long capacity) {
 		this(0, 0, capacity, 0);
 	}
 
-	protected RingBufferState remove(int length) {
+	protected RingBufferState remove(long length) {
 		RingPosition nextPos = position.advance(length);
-		int nextSize = size - length;
+		long nextSize = size - length;
 		return newState(nextPos, nextSize);
 	}
 
-	public int size() {
+	public long size() {
 		return size;
 	}
 
@@ -38,20 +38,20 @@ public class RingBufferState {
 		return position;
 	}
 
-	public int writePosition() {
+	public long writePosition() {
 		return wrap(position.position() + size);
 	}
 
-	public RingPosition writePosition(int offset) {
+	public RingPosition writePosition(long offset) {
 		return position.advance(size + offset);
 	}
 
-	public RingBufferState incrementSize(int length) {
+	public RingBufferState incrementSize(long length) {
 		return newState(position, size + length);
 	}
 
-	public int availableToRead(RingPosition from) {
-		int distance = from.substract(position);
+	public long availableToRead(RingPosition from) {
+		long distance = from.substract(position);
 		if (distance < 0)
 			return -1;
 		return Math.max(0, size - distance);
@@ -61,12 +61,12 @@ public class RingBufferState {
 		return position.position() + size > position.capacity();
 	}
 
-	public RingBufferState updateCapacity(int newCapacity, RingBufferState fromState) {
+	public RingBufferState updateCapacity(long newCapacity, RingBufferState fromState) {
 		RingPosition newPos = position.updateCapacity(newCapacity, fromState);
 		return newState(newPos, size);
 	}
 
-	public RingBufferState withCapacity(int newCapacity) {
+	public RingBufferState withCapacity(long newCapacity) {
 		return newState(position.withCapacity(newCapacity), size);
 	}
 
@@ -75,15 +75,15 @@ public class RingBufferState {
 		return String.format("RingBufferState [position=%s, size=%s]", position, size);
 	}
 
-	protected final RingBufferState newState(RingPosition ringPosition, int size) {
+	protected final RingBufferState newState(RingPosition ringPosition, long size) {
 		return newState(ringPosition.position(), ringPosition.cycle(), ringPosition.capacity(), size);
 	}
 
-	protected RingBufferState newState(int position, long cycle, int capacity, int size) {
+	protected RingBufferState newState(long position, long cycle, long capacity, long size) {
 		return new RingBufferState(position, cycle, capacity, size);
 	}
 
-	public int capacity() {
+	public long capacity() {
 		return position.capacity();
 	}
 
@@ -91,11 +91,11 @@ public class RingBufferState {
 		return position.cycle();
 	}
 
-	public int wrap(int position) {
+	public long wrap(long position) {
 		return this.position.wrap(position);
 	}
 
-	public RingBufferState shrink(int newCapacity) {
+	public RingBufferState shrink(long newCapacity) {
 		return newState(new RingPosition(0, cycle(), newCapacity), size);
 	}
 
@@ -4,18 +4,29 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
 public final class RingBufferUtils {
 
+	private static final BufferCleaner BUFFER_CLEANER = createBufferCleaner();
+
 	private RingBufferUtils() {}
 	
 	@FunctionalInterface
 	public interface IOFunction<T, R> {
 		R apply(T input) throws IOException;
 	}
+
+	@FunctionalInterface
+	public interface IORunnable {
+		void run() throws IOException;
+	}
 	
-	public static final boolean isPowerOfTwo(int n) {
+	public static final boolean isPowerOfTwo(long n) {
 		return (n & (n - 1)) == 0;
 	}
 
@@ -33,6 +44,29 @@ public final class RingBufferUtils {
 		return n;
 	}
 
+	public static final long nextPowerOfTwo(long n) {
+		n--;
+		n |= n >> 1;
+		n |= n >> 2;
+		n |= n >> 4;
+		n |= n >> 8;
+		n |= n >> 16;
+		n |= n >> 32;
+		n++;
+		return n;
+	}
+
+	/**
+	 * @return value as an int, for in memory buffers that can not exceed the
+	 *         maximum array size
+	 * @throws IllegalArgumentException if value does not fit in an int
+	 */
+	public static int toIntExact(long value) {
+		if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)
+			throw new IllegalArgumentException(value + " exceeds in memory buffer limit " + Integer.MAX_VALUE);
+		return (int) value;
+	}
+
 	public static void validateBufferParams(byte[] buffer, int offset, int length) {
 		Objects.requireNonNull(buffer, "buffer is null");
 		if (offset < 0 || offset >= buffer.length)
@@ -59,6 +93,23 @@ public final class RingBufferUtils {
 		}
 	}
 
+	/**
+	 * Write source remaining bytes to target, until target does not accept more
+	 * (non blocking channel).
+	 * 
+	 * @return the number of bytes written
+	 */
+	public static int writeFully(ByteBuffer source, WritableByteChannel target) throws IOException {
+		int written = 0;
+		while (source.hasRemaining()) {
+			int last = target.write(source);
+			if (last == 0)
+				break;
+			written += last;
+		}
+		return written;
+	}
+
 	public static void closeQuietly(Closeable closeable		) {
 		if (closeable == null)
 			return;
@@ -69,4 +120,46 @@ public final class RingBufferUtils {
 		}
 	}
 
+	/**
+	 * Release the native memory (or the file mapping) of a direct
+	 * {@link ByteBuffer} without waiting for the garbage collector.<br/>
+	 * The buffer, and any view created from it, must not be used afterward.
+	 * Does nothing for heap buffers or if the JVM does not allow it.
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect())
+			return;
+		try {
+			BUFFER_CLEANER.clean(buffer);
+		} catch (Exception e) {
+			// let the garbage collector do it
+		}
+	}
+
+	@FunctionalInterface
+	private interface BufferCleaner {
+		void clean(ByteBuffer buffer) throws Exception;
+	}
+
+	private static BufferCleaner createBufferCleaner() {
+		try {
+			// java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (Exception e) {
+			// java 8
+			return buffer -> {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+			};
+		}
+	}
+
 }
@@ -11,30 +11,30 @@ public final class RingPosition {
 
 	@FunctionalInterface
 	public interface RingAction {
-		void apply(int position, int length, int offset) throws IOException;
+		void apply(long position, int length, int offset) throws IOException;
 	}
 
-	public static int wrap(int position, int capacity) {
+	public static long wrap(long position, long capacity) {
 		return position & (capacity - 1);
 	}
 
-	private final int position;
+	private final long position;
 
 	private final long cycle;
 
-	private final int capacity;
+	private final long capacity;
 
 	public RingPosition(RingPosition from) {
 		this(from.position, from.cycle, from.capacity);
 	}
 
-	public RingPosition(int position, long cycle, int capacity) {
+	public RingPosition(long position, long cycle, long capacity) {
 		this.position = position;
 		this.cycle = cycle;
 		this.capacity = capacity;
 	}
 
-	public int position() {
+	public long position() {
 		return position;
 	}
 
@@ -42,20 +42,20 @@ public final class RingPosition {
 		return cycle;
 	}
 
-	public int capacity() {
+	public long capacity() {
 		return capacity;
 	}
 
-	public int wrap(int position) {
+	public long wrap(long position) {
 		return wrap(position, capacity);
 	}
 
-	public int substract(RingPosition other) {
+	public long substract(RingPosition other) {
 		if (other.cycle == cycle) {
 			return position - other.position;
 		} else if (other.cycle > cycle) {
 			// my position to end of buffer
-			int behind = capacity - position;
+			long behind = capacity - position;
 
 			// and full cycles until other
 			// assume capacity was constant if more than one cycle
@@ -70,7 +70,7 @@ public final class RingPosition {
 			return -behind;
 		} else { // other.cycle < cycle
 			// other distance to his buffer end
-			int before = other.capacity - other.position;
+			long before = other.capacity - other.position;
 
 			// and full cycles until me
 			long fullCycles = cycle - other.cycle - 1;
@@ -95,16 +95,16 @@ public final class RingPosition {
 				cycle, capacity, cycle * capacity + position);
 	}
 
-	public RingPosition advance(int offset) {
+	public RingPosition advance(long offset) {
 		return advance(offset, capacity);
 	}
 
-	public RingPosition withCapacity(int newCapacity) {
+	public RingPosition withCapacity(long newCapacity) {
 		return new RingPosition(position, cycle, newCapacity);
 	}
 
-	public RingPosition updateCapacity(int newCapacity, RingBufferState fromState) {
-		int offset = 0;
+	public RingPosition updateCapacity(long newCapacity, RingBufferState fromState) {
+		long offset = 0;
 		long nextCycle = cycle;
 		if (fromState.wrapped() && cycle == fromState.cycle() + 1 && position <= fromState.writePosition()) {
 			offset = fromState.capacity();
@@ -121,26 +121,26 @@ public final class RingPosition {
 		if (length == 0)
 			return;
 
-		int endPosition = wrap(position + length);
+		long endPosition = wrap(position + length);
 		if (endPosition <= position) {
 			// wrapped
-			int tail = capacity - position;
+			int tail = (int) (capacity - position);
 			action.apply(position, tail, 0);
 			if (endPosition > 0)
-				action.apply(0, endPosition, tail);
+				action.apply(0, (int) endPosition, tail);
 		} else {
 			action.apply(position, length, 0);
 		}
 	}
 
-	private RingPosition advance(int offset, int newCapacity) {
+	private RingPosition advance(long offset, long newCapacity) {
 		if (Math.abs(offset) > capacity)
 			throw new IllegalArgumentException("offset can not exceed capacity (" + capacity + ")");
 
 		if (offset == 0)
 			return capacity == newCapacity ? this : new RingPosition(position, cycle, newCapacity);
 
-		int nextPos = wrap(position + offset);
+		long nextPos = wrap(position + offset);
 		long nextCycle = cycle;
 		if (offset < 0 && nextPos >= position) {
 			nextCycle--;
@@ -154,9 +154,9 @@ public final class RingPosition {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + capacity;
-		result = prime * result + (int) (cycle ^ (cycle >>> 32));
-		result = prime * result + position;
+		result = prime * result + Long.hashCode(capacity);
+		result = prime * result + Long.hashCode(cycle);
+		result = prime * result + Long.hashCode(position);
 		return result;
 	}
 
@@ -1,6 +1,8 @@
 package org.yah.tools.ringbuffer.impl.array;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import org.yah.tools.ringbuffer.StreamRingBuffer;
 import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer;
@@ -18,7 +20,17 @@ public class ArrayRingBuffer extends AbstractStreamRingBuffer {
 	}
 
 	public ArrayRingBuffer(int capacity, int limit, long writeTimeout) throws IOException {
-		super(limit, writeTimeout);
+		this(capacity, limit, writeTimeout, ConcurrencyMode.LOCKING);
+	}
+
+	public ArrayRingBuffer(int capacity, int limit, long writeTimeout, ConcurrencyMode concurrencyMode)
+			throws IOException {
+		this(capacity, limit, writeTimeout, concurrencyMode, WaitStrategy.BLOCKING);
+	}
+
+	public ArrayRingBuffer(int capacity, int limit, long writeTimeout, ConcurrencyMode concurrencyMode,
+			WaitStrategy waitStrategy) throws IOException {
+		super(limit, writeTimeout, concurrencyMode, waitStrategy);
 		capacity = RingBufferUtils.nextPowerOfTwo(capacity);
 		if (limit > 0 && limit < capacity)
 			throw new IllegalArgumentException("capacity " + capacity + " is greater than limit " + limit);
@@ -26,8 +38,8 @@ public class ArrayRingBuffer extends AbstractStreamRingBuffer {
 	}
 
 	@Override
-	protected ArrayLinearBuffer allocate(int capacity) {
-		return new ArrayLinearBuffer(capacity);
+	protected ArrayLinearBuffer allocate(long capacity) {
+		return new ArrayLinearBuffer(RingBufferUtils.toIntExact(capacity));
 	}
 
 	public static class ArrayLinearBuffer implements LinearBuffer {
@@ -39,19 +51,34 @@ public class ArrayRingBuffer extends AbstractStreamRingBuffer {
 		}
 
 		@Override
-		public void read(int position, byte[] target, int offset, int length) {
-			System.arraycopy(buffer, position, target, offset, length);
+		public void read(long position, byte[] target, int offset, int length) {
+			System.arraycopy(buffer, (int) position, target, offset, length);
+		}
+
+		@Override
+		public void write(long position, byte[] source, int offset, int length) {
+			System.arraycopy(source, offset, buffer, (int) position, length);
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) {
+			target.put(buffer, (int) position, target.remaining());
+		}
+
+		@Override
+		public void write(long position, ByteBuffer source) {
+			source.get(buffer, (int) position, source.remaining());
 		}
 
 		@Override
-		public void write(int position, byte[] source, int offset, int length) {
-			System.arraycopy(source, offset, buffer, position, length);
+		public long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+			return RingBufferUtils.writeFully(ByteBuffer.wrap(buffer, (int) position, (int) length), target);
 		}
 
 		@Override
-		public void copyTo(LinearBuffer target, int position, int targetPosition, int length) {
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length) {
 			byte[] targetBuffer = ((ArrayLinearBuffer) target).buffer;
-			System.arraycopy(buffer, position, targetBuffer, targetPosition, length);
+			System.arraycopy(buffer, (int) position, targetBuffer, (int) targetPosition, (int) length);
 		}
 
 	}
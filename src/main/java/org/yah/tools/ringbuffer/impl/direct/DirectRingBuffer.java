@@ -0,0 +1,158 @@
+package org.yah.tools.ringbuffer.impl.direct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.yah.tools.ringbuffer.StreamRingBuffer;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer;
+import org.yah.tools.ringbuffer.impl.LinearBuffer;
+import org.yah.tools.ringbuffer.impl.MemoryReleaseGuard;
+import org.yah.tools.ringbuffer.impl.RingBufferState;
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+
+/**
+ * In memory implementation of {@link StreamRingBuffer} using off heap direct
+ * {@link ByteBuffer}.<br/>
+ * The limit bounds the native memory used by this buffer. This memory is
+ * released once the reads and writes in progress are done: when replaced by a
+ * capacity increase (readers read again from the new buffer), or when the
+ * buffer is closed (readers and writers fail afterward).
+ */
+public class DirectRingBuffer extends AbstractStreamRingBuffer {
+
+	public DirectRingBuffer(int capacity) throws IOException {
+		this(capacity, -1, 0);
+	}
+
+	public DirectRingBuffer(int capacity, int limit, long writeTimeout) throws IOException {
+		this(capacity, limit, writeTimeout, ConcurrencyMode.LOCKING);
+	}
+
+	public DirectRingBuffer(int capacity, int limit, long writeTimeout, ConcurrencyMode concurrencyMode)
+			throws IOException {
+		this(capacity, limit, writeTimeout, concurrencyMode, WaitStrategy.BLOCKING);
+	}
+
+	public DirectRingBuffer(int capacity, int limit, long writeTimeout, ConcurrencyMode concurrencyMode,
+			WaitStrategy waitStrategy) throws IOException {
+		super(limit, writeTimeout, concurrencyMode, waitStrategy);
+		capacity = RingBufferUtils.nextPowerOfTwo(capacity);
+		if (limit > 0 && limit < capacity)
+			throw new IllegalArgumentException("capacity " + capacity + " is greater than limit " + limit);
+		restore(new RingBufferState(capacity), allocate(capacity));
+	}
+
+	@Override
+	protected DirectLinearBuffer allocate(long capacity) {
+		return new DirectLinearBuffer(RingBufferUtils.toIntExact(capacity));
+	}
+
+	@Override
+	protected void releaseReplaced(LinearBuffer replaced) {
+		((DirectLinearBuffer) replaced).release();
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		((DirectLinearBuffer) linearBuffer()).release();
+	}
+
+	public static class DirectLinearBuffer implements LinearBuffer {
+
+		private final ByteBuffer buffer;
+
+		private final MemoryReleaseGuard guard;
+
+		public DirectLinearBuffer(int capacity) {
+			this.buffer = ByteBuffer.allocateDirect(capacity);
+			this.guard = new MemoryReleaseGuard(() -> RingBufferUtils.release(buffer));
+		}
+
+		@Override
+		public void read(long position, byte[] target, int offset, int length) throws IOException {
+			guard.enter();
+			try {
+				view(position).get(target, offset, length);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void write(long position, byte[] source, int offset, int length) throws IOException {
+			guard.enter();
+			try {
+				view(position).put(source, offset, length);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) throws IOException {
+			guard.enter();
+			try {
+				ByteBuffer src = view(position);
+				src.limit(src.position() + target.remaining());
+				target.put(src);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void write(long position, ByteBuffer source) throws IOException {
+			guard.enter();
+			try {
+				view(position).put(source);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+			guard.enter();
+			try {
+				ByteBuffer src = view(position);
+				src.limit((int) (position + length));
+				return RingBufferUtils.writeFully(src, target);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length) throws IOException {
+			guard.enter();
+			try {
+				ByteBuffer src = view(position);
+				src.limit((int) (position + length));
+				target.write(targetPosition, src);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		/**
+		 * Must be used between {@link MemoryReleaseGuard#enter()} and
+		 * {@link MemoryReleaseGuard#exit()}
+		 */
+		private ByteBuffer view(long position) {
+			ByteBuffer view = buffer.duplicate();
+			view.position((int) position);
+			return view;
+		}
+
+		/**
+		 * Free the native memory once the reads and writes in progress are done
+		 */
+		void release() {
+			guard.release();
+		}
+
+	}
+
+}
@@ -4,7 +4,7 @@ import java.io.IOException;
 
 public class RingBufferOverflowException extends IOException {
 
-	public RingBufferOverflowException(int requested, int remaining) {
+	public RingBufferOverflowException(long requested, long remaining) {
 		super(String.format("Requested %d bytes, only %d available", requested, remaining));
 	}
 
@@ -3,29 +3,54 @@ package org.yah.tools.ringbuffer.impl.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
+import org.yah.tools.ringbuffer.impl.MemoryReleaseGuard;
 import org.yah.tools.ringbuffer.impl.RingBufferInputStream;
 import org.yah.tools.ringbuffer.impl.RingBufferInputStream.ReadSnapshot;
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferConcurrentModificationException;
 
-public class BufferedRingBufferInputStream extends InputStream {
+/**
+ * An {@link InputStream} reading ahead from a {@link RingBufferInputStream}
+ * into a direct buffer, so that file reads do not go through an intermediate
+ * heap array.<br/>
+ * Reads larger than the buffer go straight to the delegate.<br/>
+ * The buffer is taken from a {@link DirectBufferPool}, and given back once
+ * closed and no read uses it anymore: the stream can be closed by another
+ * thread while reading.
+ */
+public class BufferedRingBufferInputStream extends InputStream implements ReadableByteChannel {
 
 	private final ByteBuffer buffer;
 
 	private final RingBufferInputStream delegate;
 
-	private boolean closed;
+	private final MemoryReleaseGuard guard;
 
-	public BufferedRingBufferInputStream(RingBufferInputStream delegate, int bufferSize) {
+	private volatile boolean closed;
+
+	BufferedRingBufferInputStream(RingBufferInputStream delegate, DirectBufferPool bufferPool) {
 		this.delegate = Objects.requireNonNull(delegate, "delegate is null");
-		buffer = ByteBuffer.allocate(bufferSize);
+		buffer = bufferPool.acquire();
 		buffer.limit(0);
+		guard = new MemoryReleaseGuard(() -> bufferPool.release(buffer));
 	}
 
 	@Override
 	public int read() throws IOException {
+		guard.enter();
+		try {
+			return doRead();
+		} finally {
+			guard.exit();
+		}
+	}
+
+	private int doRead() throws IOException {
 		while (!closed && !buffer.hasRemaining()) {
 			ReadSnapshot snapshot = delegate.awaitInput(s -> s);
 			if (snapshot.available() < 0)
@@ -41,6 +66,15 @@ public class BufferedRingBufferInputStream extends InputStream {
 
 	@Override
 	public long skip(long n) throws IOException {
+		guard.enter();
+		try {
+			return doSkip(n);
+		} finally {
+			guard.exit();
+		}
+	}
+
+	private long doSkip(long n) throws IOException {
 		int remaining = buffer.remaining();
 		if (remaining > n) {
 			buffer.position(buffer.position() + (int) n);
@@ -54,6 +88,15 @@ public class BufferedRingBufferInputStream extends InputStream {
 
 	@Override
 	public int read(byte[] target, final int offset, final int length) throws IOException {
+		guard.enter();
+		try {
+			return doRead(target, offset, length);
+		} finally {
+			guard.exit();
+		}
+	}
+
+	private int doRead(byte[] target, final int offset, final int length) throws IOException {
 		int remaining = length;
 		int read = 0;
 		if (buffer.hasRemaining()) {
@@ -75,25 +118,107 @@ public class BufferedRingBufferInputStream extends InputStream {
 		return read;
 	}
 	
+	@Override
+	public int read(ByteBuffer target) throws IOException {
+		guard.enter();
+		try {
+			return doRead(target);
+		} finally {
+			guard.exit();
+		}
+	}
+
+	private int doRead(ByteBuffer target) throws IOException {
+		int read = 0;
+		if (buffer.hasRemaining())
+			read += drainBuffer(target);
+
+		if (target.remaining() > buffer.capacity()) {
+			// still more than the buffer capacity, do no use buffer for the rest
+			read += delegate.read(target);
+		} else if (target.hasRemaining() && fillBuffer() > 0) {
+			read += drainBuffer(target);
+		}
+		return read;
+	}
+
+	/**
+	 * Write the buffered bytes, then let the delegate transfer the rest.
+	 * 
+	 * @see RingBufferInputStream#transferTo(WritableByteChannel, long)
+	 */
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		guard.enter();
+		try {
+			return doTransferTo(target, maxBytes);
+		} finally {
+			guard.exit();
+		}
+	}
+
+	private long doTransferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		long transferred = 0;
+		if (buffer.hasRemaining()) {
+			int size = (int) Math.min(maxBytes, buffer.remaining());
+			int limit = buffer.limit();
+			buffer.limit(buffer.position() + size);
+			try {
+				transferred = RingBufferUtils.writeFully(buffer, target);
+			} finally {
+				buffer.limit(limit);
+			}
+			if (transferred < size)
+				return transferred;
+		}
+		if (transferred < maxBytes)
+			transferred += delegate.transferTo(target, maxBytes - transferred);
+		return transferred;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
 	@Override
 	public int available() throws IOException {
-		return buffer.remaining() + delegate.available();
+		guard.enter();
+		try {
+			return buffer.remaining() + delegate.available();
+		} finally {
+			guard.exit();
+		}
 	}
 
 	private int fillBuffer() throws IOException {
 		int size = Math.min(delegate.available(), buffer.capacity());
-		int read = delegate.read(buffer.array(), 0, size);
-		buffer.rewind().limit(read);
+		buffer.clear();
+		buffer.limit(size);
+		int read = delegate.read(buffer);
+		buffer.flip();
 		return read;
 	}
 
+	private int drainBuffer(ByteBuffer target) {
+		int size = Math.min(target.remaining(), buffer.remaining());
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + size);
+		target.put(buffer);
+		buffer.limit(limit);
+		return size;
+	}
+
 	private void resetBuffer() {
 		buffer.rewind().limit(0);
 	}
 
 	@Override
 	public void close() throws IOException {
-		delegate.close();
-		closed = true;
+		try {
+			delegate.close();
+		} finally {
+			closed = true;
+			guard.release();
+		}
 	}
 }
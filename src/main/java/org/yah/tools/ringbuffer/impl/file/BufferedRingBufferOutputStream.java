@@ -3,14 +3,19 @@ package org.yah.tools.ringbuffer.impl.file;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import org.yah.tools.ringbuffer.impl.RingBufferOutputStream;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
 
 /**
  * An {@link OutputStream} buffering data to improve file performance.<br/>
- * Delegate to an {@link RingBufferOutputStream} to do the actual loading.
+ * Delegate to an {@link RingBufferOutputStream} to do the actual loading. The
+ * buffer is direct so it can be written to the file without intermediate
+ * copy, and is written with the data overflowing it in a single gathering
+ * write. It is taken from a {@link DirectBufferPool} and given back on close.
  */
-public class BufferedRingBufferOutputStream extends OutputStream {
+public class BufferedRingBufferOutputStream extends OutputStream implements WritableByteChannel {
 
 	public interface WriterSupplier {
 		RingBufferOutputStream get() throws IOException;
@@ -20,13 +25,18 @@ public class BufferedRingBufferOutputStream extends OutputStream {
 
 	private final WriterSupplier delegateProvider;
 
+	private final DirectBufferPool bufferPool;
+
 	private final ByteBuffer buffer;
 
 	private RingBufferOutputStream ringBufferStream;
 
-	public BufferedRingBufferOutputStream(WriterSupplier delegateProvider, int bufferSize) {
+	private boolean closed;
+
+	BufferedRingBufferOutputStream(WriterSupplier delegateProvider, DirectBufferPool bufferPool) {
 		this.delegateProvider = delegateProvider;
-		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.bufferPool = bufferPool;
+		this.buffer = bufferPool.acquire();
 	}
 
 	@Override
@@ -37,47 +47,86 @@ public class BufferedRingBufferOutputStream extends OutputStream {
 
 	@Override
 	public void write(byte[] source, int offset, int length) throws IOException {
-		int remaining = length;
-		if (buffer.remaining() > 0) {
-			int chunk = Math.min(remaining, buffer.remaining());
-			buffer.put(source, offset, chunk);
-			remaining -= chunk;
-			offset += chunk;
-		}
+		ensureOpen();
+		if (length <= buffer.remaining())
+			buffer.put(source, offset, length);
+		else
+			writeWithBuffer(ByteBuffer.wrap(source, offset, length));
+	}
 
-		if (remaining > 0) {
-			flushBuffer();
-			if (remaining >= buffer.remaining())
-				doWrite(source, offset, remaining);
-			else
-				buffer.put(source, offset, remaining);
-		}
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		ensureOpen();
+		int length = source.remaining();
+		if (length <= buffer.remaining())
+			buffer.put(source);
+		else
+			writeWithBuffer(source);
+		return length;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
 	}
 
 	@Override
 	public void flush() throws IOException {
+		ensureOpen();
 		flushBuffer();
-		ringBufferStream.flush();
+		if (ringBufferStream != null)
+			ringBufferStream.flush();
 	}
 
 	@Override
 	public void close() throws IOException {
-		flushBuffer();
-		ringBufferStream.close();
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flushBuffer();
+		} finally {
+			bufferPool.release(buffer);
+			if (ringBufferStream != null)
+				ringBufferStream.close();
+		}
+	}
+
+	private void ensureOpen() throws RingBufferClosedException {
+		if (closed)
+			throw new RingBufferClosedException();
 	}
 
 	private void flushBuffer() throws IOException {
 		if (buffer.position() > 0) {
 			buffer.flip();
-			doWrite(buffer.array(), 0, buffer.limit());
-			buffer.rewind().limit(buffer.capacity());
+			doWrite(buffer);
+			buffer.clear();
 		}
 	}
 
-	private void doWrite(byte[] source, int offset, int remaining) throws IOException {
+	private RingBufferOutputStream ringBufferStream() throws IOException {
 		if (ringBufferStream == null)
 			ringBufferStream = delegateProvider.get();
-		ringBufferStream.write(source, offset, remaining);
+		return ringBufferStream;
+	}
+
+	private void doWrite(ByteBuffer source) throws IOException {
+		ringBufferStream().write(source);
+	}
+
+	/**
+	 * Source does not fit in the buffer: write the buffered data and the source
+	 * with a single gathering write, without copying the source in the buffer.
+	 */
+	private void writeWithBuffer(ByteBuffer source) throws IOException {
+		if (buffer.position() == 0) {
+			doWrite(source);
+			return;
+		}
+		buffer.flip();
+		ringBufferStream().write(new ByteBuffer[] { buffer, source });
+		buffer.clear();
 	}
 
 }
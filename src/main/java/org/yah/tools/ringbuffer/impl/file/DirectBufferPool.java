@@ -0,0 +1,67 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+
+/**
+ * Direct buffers of the buffered streams, reused across streams: a stream is
+ * created for each offer, and a direct buffer is costly to allocate and only
+ * freed by the garbage collector.<br/>
+ * Buffers not kept by the pool, or returned once closed, are freed.
+ */
+final class DirectBufferPool {
+
+	private static final int MAX_POOLED = 4;
+
+	private final int bufferSize;
+
+	private final Deque<ByteBuffer> buffers = new ArrayDeque<>(MAX_POOLED);
+
+	private boolean closed;
+
+	DirectBufferPool(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return a cleared buffer, to be given back with {@link #release(ByteBuffer)}
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer;
+		synchronized (buffers) {
+			buffer = buffers.pollFirst();
+		}
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give back an acquired buffer, it must not be used afterward.
+	 */
+	public void release(ByteBuffer buffer) {
+		synchronized (buffers) {
+			if (!closed && buffers.size() < MAX_POOLED) {
+				buffers.addFirst(buffer);
+				return;
+			}
+		}
+		RingBufferUtils.release(buffer);
+	}
+
+	/**
+	 * Free the pooled buffers, the buffers in use will be freed when released.
+	 */
+	public void close() {
+		synchronized (buffers) {
+			closed = true;
+			buffers.forEach(RingBufferUtils::release);
+			buffers.clear();
+		}
+	}
+
+}
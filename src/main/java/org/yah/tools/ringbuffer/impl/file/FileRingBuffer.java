@@ -5,25 +5,72 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer;
 import org.yah.tools.ringbuffer.impl.LinearBuffer;
+import org.yah.tools.ringbuffer.impl.MemoryReleaseGuard;
+import org.yah.tools.ringbuffer.impl.MultiProducerOutputStream;
+import org.yah.tools.ringbuffer.impl.RingBufferOutputStream;
 import org.yah.tools.ringbuffer.impl.RingBufferState;
 import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+import org.yah.tools.ringbuffer.impl.RingPosition;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferConcurrentModificationException;
 
 public class FileRingBuffer extends AbstractStreamRingBuffer {
 
-	private static final int HEADER_LENGTH = 3 * Integer.BYTES;
+	/**
+	 * First int of a versioned header. Legacy headers start with the (positive)
+	 * ring position, so a negative value can not be confused with them.
+	 */
+	private static final int HEADER_MAGIC = 0xFA57_0000;
+
+	/**
+	 * Header format version: two slots written alternately, so that a torn write
+	 * can only corrupt the older state. Each slot contains the magic, the version,
+	 * a long sequence, the state fields (long position, size and capacity) and a
+	 * CRC32 of all the previous slot bytes. The valid slot with the highest
+	 * sequence is used.
+	 */
+	public static final int HEADER_VERSION = 3;
+
+	/**
+	 * Version 2 header: magic, version and state fields in a single slot, without
+	 * checksum
+	 */
+	private static final int SINGLE_SLOT_VERSION = 2;
+
+	private static final int SLOT_PREFIX_LENGTH = 2 * Integer.BYTES + Long.BYTES;
+
+	private static final int STATE_LENGTH = 3 * Long.BYTES;
+
+	/**
+	 * Version 1 header: int position, size and capacity, no magic
+	 */
+	private static final int LEGACY_HEADER_LENGTH = 3 * Integer.BYTES;
 
 	public enum SyncMode {
 		NONE,
@@ -31,35 +78,194 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 		FORCE;
 	}
 
+	/**
+	 * How the ring buffer data are accessed in the file.
+	 */
+	public enum StorageMode {
+		/**
+		 * positional {@link FileChannel} read and write
+		 */
+		CHANNEL,
+		/**
+		 * data region mapped in memory using {@link MappedByteBuffer} segments, read
+		 * and write are memory copies
+		 */
+		MAPPED,
+		/**
+		 * data stored in fixed size segment files next to the buffer file, which only
+		 * keeps the header. Segments are created when written and deleted once fully
+		 * removed, the ring never grows nor needs to be rewound: its capacity is
+		 * {@link FileRingBuffer#SEGMENTED_CAPACITY} and the backlog is only bounded
+		 * by the limit.
+		 */
+		SEGMENTED;
+	}
+
 	public static final int DEFAULT_CAPACITY = 128 * 1024;
 
+	public static final int DEFAULT_MAPPED_SEGMENT_SIZE = 64 * 1024 * 1024;
+
 	public static final int DEFAULT_READER_CACHE = 4 * 1024;
 
-	private final int readerCache;
+	public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Capacity of a {@link StorageMode#SEGMENTED} ring, large enough to never
+	 * wrap.
+	 */
+	public static final long SEGMENTED_CAPACITY = 1L << 62;
+
+	private static final int SEGMENT_TRANSFER_SIZE = 64 * 1024;
+
+	private static final int PREALLOCATION_CHUNK_SIZE = 1024 * 1024;
 
-	private final int writeBufferSize;
+	/**
+	 * buffers of the buffered readers, null if not buffered
+	 */
+	private final DirectBufferPool readBuffers;
+
+	/**
+	 * buffers of the buffered writers, null if not buffered
+	 */
+	private final DirectBufferPool writeBuffers;
 
-	private final int requestedLimit;
+	private final long requestedLimit;
 
 	private final Path file;
 
 	private final SyncMode syncMode;
 
+	private final StorageMode storageMode;
+
+	private final int mappedSegmentSize;
+
+	private final long segmentSize;
+
 	private final ByteBuffer headerBuffer;
 
+	private final boolean preallocate;
+
+	/**
+	 * automatic compaction is done once size stayed under this fraction of the
+	 * capacity for {@link #compactionDelay}, disabled if <= 0
+	 */
+	private final double compactionThreshold;
+
+	private final long compactionDelay;
+
+	/**
+	 * time since the size is under the compaction threshold, 0 if above
+	 */
+	private volatile long belowThresholdSince;
+
+	/**
+	 * {@link SyncMode#FORCE} with a group commit window only
+	 */
+	private final GroupCommit groupCommit;
+
+	/**
+	 * last state written to the header, by the group commit or the deferred
+	 * header writes only
+	 */
+	private volatile RingBufferState lastWrittenState;
+
+	/**
+	 * {@link SyncMode#NONE} only: the header is written once this number of state
+	 * updates, or this delay in nanoseconds, is reached. Disabled if <= 1.
+	 */
+	private final int deferredHeaderUpdates;
+
+	private final long deferredHeaderDelay;
+
+	/**
+	 * serialize the deferred header writes, from state updates and writers
+	 */
+	private final Object headerLock = new Object();
+
+	/**
+	 * header writes are deferred once opened
+	 */
+	private volatile boolean deferHeader;
+
+	/**
+	 * the in-memory state is ahead of the header, guarded by {@link #headerLock}
+	 * for writes
+	 */
+	private volatile boolean headerStale;
+
+	private int deferredUpdates;
+
+	private long lastHeaderWrite;
+
+	/**
+	 * write behind staging, null if writers write directly
+	 */
+	private final WriteBehind writeBehind;
+
+	/**
+	 * sequence of the last written header slot
+	 */
+	private long headerSequence;
+
 	private FileChannel fileChannel;
 
+	/**
+	 * serialize the operations relying on the channel position: vectored I/O and
+	 * in file transfers
+	 */
+	private final Object channelPositionLock = new Object();
+
 	protected FileRingBuffer(Builder builder) throws IOException {
-		super(builder.limit, builder.writeTimeout);
-		this.readerCache = builder.readerCacheSize;
-		this.writeBufferSize = builder.writeBufferSize;
+		super(builder.maxCapacity > 0 ? builder.maxCapacity : builder.limit, builder.writeTimeout,
+				builder.concurrencyMode, builder.waitStrategy);
+		this.readBuffers = builder.readerCacheSize > 0 ? new DirectBufferPool(builder.readerCacheSize) : null;
+		this.writeBuffers = builder.writeBufferSize > 0 ? new DirectBufferPool(builder.writeBufferSize) : null;
 		this.syncMode = builder.syncMode;
-		this.requestedLimit = RingBufferUtils.nextPowerOfTwo(builder.limit);
+		this.storageMode = builder.storageMode;
+		this.mappedSegmentSize = builder.mappedSegmentSize;
+		if (!RingBufferUtils.isPowerOfTwo(mappedSegmentSize))
+			throw new IllegalArgumentException("mapped segment size " + mappedSegmentSize + " is not a power of 2");
+		this.segmentSize = builder.segmentSize;
+		if (segmentSize <= 0 || !RingBufferUtils.isPowerOfTwo(segmentSize))
+			throw new IllegalArgumentException("segment size " + segmentSize + " is not a power of 2");
+		if (builder.writeBehindCapacity > 0 && builder.concurrencyMode == ConcurrencyMode.MPSC)
+			throw new IllegalArgumentException("write behind can not be used with " + ConcurrencyMode.MPSC);
+		if (builder.deferredHeaderUpdates > 1 && builder.syncMode != SyncMode.NONE)
+			throw new IllegalArgumentException("deferred header requires " + SyncMode.NONE + " sync mode");
+		if (builder.maxCapacity > 0 && (builder.limit <= 0 || builder.maxCapacity < builder.limit))
+			throw new IllegalArgumentException("max capacity " + builder.maxCapacity + " is lower than limit " + builder.limit);
+		this.requestedLimit = RingBufferUtils.nextPowerOfTwo(builder.limit > 0 ? builder.limit : DEFAULT_CAPACITY);
+		this.preallocate = builder.preallocate;
+		this.compactionThreshold = builder.compactionThreshold;
+		this.compactionDelay = builder.compactionDelay;
+		this.deferredHeaderUpdates = builder.deferredHeaderUpdates;
+		this.deferredHeaderDelay = builder.deferredHeaderDelay;
+		this.groupCommit = syncMode == SyncMode.FORCE && builder.groupCommitWindow >= 0
+				? new GroupCommit(this::forceAll, builder.groupCommitWindow, TimeUnit.NANOSECONDS)
+				: null;
 		this.file = builder.file.toPath();
 		this.fileChannel = openChannel();
-		headerBuffer = ByteBuffer.allocate(headerLength());
+		headerBuffer = ByteBuffer.allocate(slotLength());
 
 		RingBufferState state = readState();
+		if (storageMode == StorageMode.SEGMENTED) {
+			// no shrink nor tail transfer, segments are reclaimed while running
+			SegmentedLinearBuffer segments = new SegmentedLinearBuffer();
+			restore(openSegments(state, segments), segments);
+			this.writeBehind = createWriteBehind(builder);
+			this.deferHeader = deferredHeaderUpdates > 1;
+			return;
+		}
+
+		if (state.capacity() == SEGMENTED_CAPACITY)
+			throw new IOException(file + " uses " + StorageMode.SEGMENTED + " storage");
+
+		long expectedLength = headerLength() + state.capacity();
+		if (fileChannel.size() > expectedLength) {
+			// growth interrupted before its state was written
+			fileChannel.truncate(expectedLength);
+		}
+
 		// retrieve disk space if possible
 		state = shrink(state);
 
@@ -69,103 +275,752 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 			transferWrappedTail(state);
 			state = state.withCapacity(requestedLimit);
 		}
-		restore(state, new FileLinearBuffer());
+		if (preallocate)
+			preallocate(fileChannel, headerLength() + state.capacity());
+		// file content is now final, linear buffer can be created (and mapped)
+		restore(state, createLinearBuffer(state.capacity()));
+		this.writeBehind = createWriteBehind(builder);
+		this.deferHeader = deferredHeaderUpdates > 1;
+	}
+
+	private WriteBehind createWriteBehind(Builder builder) {
+		if (builder.writeBehindCapacity <= 0)
+			return null;
+		return new WriteBehind("write-behind-" + file.getFileName(), builder.writeBehindCapacity, this::writeBatch);
+	}
+
+	private LinearBuffer createLinearBuffer(long capacity) throws IOException {
+		if (storageMode == StorageMode.MAPPED)
+			return new MappedFileLinearBuffer(capacity);
+		return new FileLinearBuffer();
+	}
+
+	public StorageMode storageMode() {
+		return storageMode;
 	}
 
 	private RingBufferState readState() throws IOException {
-		int channelSize = (int) fileChannel.size();
+		long channelSize = fileChannel.size();
 		if (channelSize == 0) {
-			RingBufferState res = newState(requestedLimit);
+			RingBufferState res = newState(storageMode == StorageMode.SEGMENTED ? SEGMENTED_CAPACITY : requestedLimit);
+			// fill both slots, the first one identifies the format
+			writeState(res);
 			writeState(res);
 			return res;
-		} else {
-			headerBuffer.position(0);
-			fileChannel.read(headerBuffer, 0);
+		}
+
+		RingBufferState state = readSlots();
+		if (state != null)
+			return state;
+
+		ByteBuffer prefixBuffer = ByteBuffer.allocate(2 * Integer.BYTES);
+		readFully(prefixBuffer, 0);
+		int magic = prefixBuffer.getInt(0);
+		if (magic >= 0) {
+			// version 1
+			ByteBuffer legacyBuffer = ByteBuffer.allocate(legacyHeaderLength());
+			readFully(legacyBuffer, 0);
+			legacyBuffer.flip();
+			return upgradeHeader(legacyHeaderLength(), readLegacyHeader(legacyBuffer.asIntBuffer()), channelSize);
+		}
+		if (magic == HEADER_MAGIC && prefixBuffer.getInt(Integer.BYTES) == SINGLE_SLOT_VERSION) {
+			int singleSlotLength = 2 * Integer.BYTES + stateLength();
+			ByteBuffer singleSlotBuffer = ByteBuffer.allocate(singleSlotLength);
+			readFully(singleSlotBuffer, 0);
+			singleSlotBuffer.position(2 * Integer.BYTES);
+			return upgradeHeader(singleSlotLength, readHeader(singleSlotBuffer), channelSize);
+		}
+		throw new IOException("No valid header in " + file);
+	}
+
+	/**
+	 * @return the state of the valid slot with the highest sequence, or null if
+	 *         none is valid
+	 */
+	private RingBufferState readSlots() throws IOException {
+		RingBufferState state = null;
+		int slotLength = slotLength();
+		if (fileChannel.size() < 2 * slotLength)
+			return null;
+		for (int slot = 0; slot < 2; slot++) {
+			headerBuffer.clear();
+			readFully(headerBuffer, (long) slot * slotLength);
 			headerBuffer.flip();
-			return readHeader(headerBuffer.asIntBuffer());
+			if (!validSlot(headerBuffer))
+				continue;
+			headerBuffer.position(2 * Integer.BYTES);
+			long sequence = headerBuffer.getLong();
+			if (state == null || sequence > headerSequence) {
+				state = readHeader(headerBuffer);
+				headerSequence = sequence;
+			}
+		}
+		return state;
+	}
+
+	private boolean validSlot(ByteBuffer slotBuffer) {
+		if (slotBuffer.getInt(0) != HEADER_MAGIC || slotBuffer.getInt(Integer.BYTES) != HEADER_VERSION)
+			return false;
+		int crcPosition = slotBuffer.limit() - Integer.BYTES;
+		return slotBuffer.getInt(crcPosition) == crc(slotBuffer, crcPosition);
+	}
+
+	private static int crc(ByteBuffer buffer, int length) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.position(0).limit(length);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Convert a file from a previous header format: data are moved after the new
+	 * header in a temporary file that replaces the original one.
+	 */
+	private RingBufferState upgradeHeader(int previousHeaderLength, RingBufferState state, long channelSize)
+			throws IOException {
+		Path tempFile = file.getParent().resolve(file.getFileName() + ".tmp");
+		try (FileChannel tempFileChannel = FileChannel.open(tempFile,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			for (long sequence = 0; sequence < 2; sequence++) {
+				headerBuffer.clear();
+				putHeader(state, sequence, headerBuffer);
+				headerBuffer.flip();
+				while (headerBuffer.hasRemaining())
+					tempFileChannel.write(headerBuffer);
+			}
+			headerSequence = 1;
+			transferFully(previousHeaderLength, channelSize - previousHeaderLength, tempFileChannel);
 		}
+		replaceFile(tempFile);
+		return state;
 	}
 
-	protected RingBufferState newState(int capacity) {
+	protected RingBufferState newState(long capacity) {
 		return new RingBufferState(capacity);
 	}
 
 	@Override
 	public OutputStream writer() throws IOException {
-		if (writeBufferSize > 0)
-			return new BufferedRingBufferOutputStream(() -> super.createWriter(), writeBufferSize);
+		if (writeBehind != null)
+			return new MultiProducerOutputStream(writeBehind);
+		if (concurrencyMode() == ConcurrencyMode.MPSC)
+			return super.writer();
+		if (writeBuffers != null)
+			return new BufferedRingBufferOutputStream(() -> super.createWriter(), writeBuffers);
 		return super.createWriter();
 	}
 
 	@Override
 	public InputStream reader() throws IOException {
-		if (readerCache > 0)
-			return new BufferedRingBufferInputStream(super.createReader(), readerCache);
+		if (readBuffers != null)
+			return new BufferedRingBufferInputStream(super.createReader(), readBuffers);
+		return super.createReader();
+	}
+
+	@Override
+	public WritableByteChannel writeChannel() throws IOException {
+		if (writeBehind != null)
+			return new MultiProducerOutputStream(writeBehind);
+		if (concurrencyMode() == ConcurrencyMode.MPSC)
+			return super.writeChannel();
+		if (writeBuffers != null)
+			return new BufferedRingBufferOutputStream(() -> super.createWriter(), writeBuffers);
+		return super.createWriter();
+	}
+
+	@Override
+	public ReadableByteChannel readChannel() throws IOException {
+		if (readBuffers != null)
+			return new BufferedRingBufferInputStream(super.createReader(), readBuffers);
 		return super.createReader();
 	}
 
+	/**
+	 * Write behind I/O thread: write the drained staging ranges with a single
+	 * gathering write, no need to buffer them again
+	 */
+	private void writeBatch(ByteBuffer[] sources, int records) throws IOException {
+		try (RingBufferOutputStream os = super.createWriter()) {
+			os.write(sources);
+			addPendingRecords(records);
+		}
+	}
+
+	/**
+	 * With write behind, number of bytes accepted from writers since this buffer
+	 * is opened.
+	 */
+	public long stagedWatermark() {
+		return checkWriteBehind().stagedWatermark();
+	}
+
+	/**
+	 * With write behind, number of bytes written to the file and visible to
+	 * readers since this buffer is opened.
+	 */
+	public long writtenWatermark() {
+		return checkWriteBehind().writtenWatermark();
+	}
+
+	/**
+	 * With write behind, get a future completed with the written watermark once
+	 * every writer flushed before this call has been written, with the durability
+	 * of the {@link SyncMode}.
+	 */
+	public CompletableFuture<Long> awaitWritten() {
+		return checkWriteBehind().awaitWritten();
+	}
+
+	private WriteBehind checkWriteBehind() {
+		if (writeBehind == null)
+			throw new IllegalStateException("write behind is not enabled");
+		return writeBehind;
+	}
+
+	/**
+	 * Append the first length bytes of source to this buffer, as a single write
+	 * published with the given records count. The source is not modified, nor
+	 * read concurrently with this transfer.<br/>
+	 * Bytes go from file to file with {@link FileChannel#transferTo} when both
+	 * buffers use {@link StorageMode#CHANNEL} storage and this buffer has a
+	 * single writer, they are copied through the streams otherwise.
+	 */
+	protected final void transferFrom(FileRingBuffer source, long length, int records) throws IOException {
+		if (length == 0)
+			return;
+		if (writeBehind == null && concurrencyMode() != ConcurrencyMode.MPSC
+				&& linearBuffer() instanceof FileLinearBuffer && source.linearBuffer() instanceof FileLinearBuffer)
+			transferInFiles(source, length, records);
+		else
+			copyFrom(source, length, records);
+	}
+
+	private void transferInFiles(FileRingBuffer source, long length, int records) throws IOException {
+		RingPosition from = source.state().position();
+		// hold the writer: no other write until the pending write is published
+		RingBufferOutputStream writer = super.createWriter();
+		try {
+			long done = 0;
+			while (done < length) {
+				int chunk = (int) Math.min(length - done, Integer.MAX_VALUE);
+				List<long[]> sourceRanges = ranges(from.advance(done), chunk);
+				List<long[]> targetRanges = ranges(writePosition(chunk), chunk);
+				// both sides can wrap, at different offsets
+				int s = 0, t = 0;
+				long sourceOffset = 0, targetOffset = 0;
+				while (s < sourceRanges.size()) {
+					long[] sourceRange = sourceRanges.get(s), targetRange = targetRanges.get(t);
+					long count = Math.min(sourceRange[1] - sourceOffset, targetRange[1] - targetOffset);
+					transferFromFile(source, sourceRange[0] + sourceOffset, targetRange[0] + targetOffset, count);
+					sourceOffset += count;
+					targetOffset += count;
+					if (sourceOffset == sourceRange[1]) {
+						s++;
+						sourceOffset = 0;
+					}
+					if (targetOffset == targetRange[1]) {
+						t++;
+						targetOffset = 0;
+					}
+				}
+				addPendingWrite(chunk);
+				done += chunk;
+			}
+			addPendingRecords(records);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static List<long[]> ranges(RingPosition position, int length) throws IOException {
+		List<long[]> ranges = new ArrayList<>(2);
+		position.execute(length, (p, l, o) -> ranges.add(new long[] { p, l }));
+		return ranges;
+	}
+
+	private void transferFromFile(FileRingBuffer source, long sourcePosition, long position, long length)
+			throws IOException {
+		beforeWrite(position, length);
+		synchronized (channelPositionLock) {
+			fileChannel.position(headerLength() + position);
+			source.transferFully(source.headerLength() + sourcePosition, length, fileChannel);
+		}
+	}
+
+	private void copyFrom(FileRingBuffer source, long length, int records) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(length, SEGMENT_TRANSFER_SIZE)];
+		try (InputStream is = source.createReader(); OutputStream os = writer()) {
+			long done = 0;
+			while (done < length) {
+				int read = is.read(buffer, 0, (int) Math.min(buffer.length, length - done));
+				if (read <= 0)
+					throw new EOFException();
+				os.write(buffer, 0, read);
+				done += read;
+			}
+			if (os instanceof MultiProducerOutputStream)
+				((MultiProducerOutputStream) os).addRecords(records);
+			else
+				addPendingRecords(records);
+		}
+	}
+
 	@Override
 	protected void writeState(RingBufferState state) throws IOException {
-		IntBuffer intBuffer = headerBuffer.asIntBuffer();
-		writeHeader(state, intBuffer);
-		fileChannel.write(headerBuffer, 0);
+		if (groupCommit != null) {
+			// data and header are forced together by the group commit leader
+			writeHeader(state);
+			lastWrittenState = state;
+			groupCommit.written();
+			return;
+		}
+
+		if (deferHeader) {
+			writeDeferredHeader(state);
+			return;
+		}
+
+		MappedFileLinearBuffer mapping = mapping();
+		if (syncMode != SyncMode.NONE && mapping != null) {
+			// mapped data are not covered by DSYNC or channel force, flush them before
+			// the header referencing them
+			mapping.force();
+		} else if (syncMode == SyncMode.FORCE && linearBuffer() instanceof SegmentedLinearBuffer) {
+			// segments are separate files, not covered by the header file force
+			((SegmentedLinearBuffer) linearBuffer()).force();
+		}
+		writeHeader(state);
 		if (syncMode == SyncMode.FORCE)
 			fileChannel.force(false);
+		if (linearBuffer() instanceof SegmentedLinearBuffer) {
+			// header does not reference removed data anymore, their segments can go
+			((SegmentedLinearBuffer) linearBuffer()).release(state);
+		}
+	}
+
+	/**
+	 * Write the header if enough updates or time elapsed since the last write, or
+	 * if the capacity changed: positions of the header must match the file
+	 * layout.<br/>
+	 * The latest state is written rather than the given one, a writer may have
+	 * written a newer state meanwhile (see {@link #beforeWrite(long, long)}).
+	 */
+	private void writeDeferredHeader(RingBufferState state) throws IOException {
+		synchronized (headerLock) {
+			RingBufferState written = lastWrittenState;
+			if (written != null && written.capacity() == state.capacity()
+					&& ++deferredUpdates < deferredHeaderUpdates
+					&& System.nanoTime() - lastHeaderWrite < deferredHeaderDelay) {
+				headerStale = true;
+				return;
+			}
+			writeLatestHeader();
+		}
+	}
+
+	/**
+	 * Called by the linear buffers before writing data: a stale header may still
+	 * reference data removed since, write the latest state before overwriting
+	 * them so that the header never references overwritten data.
+	 */
+	private void beforeWrite(long position, long length) throws IOException {
+		if (headerStale && referencedByHeader(position, length)) {
+			synchronized (headerLock) {
+				if (headerStale)
+					writeLatestHeader();
+			}
+		}
+	}
+
+	private boolean referencedByHeader(long position, long length) {
+		RingBufferState written = lastWrittenState;
+		long start = written.position().position();
+		long end = start + written.size();
+		if (end <= written.capacity())
+			return position < end && start < position + length;
+		// wrapped, referenced region is [start, capacity) and [0, end - capacity)
+		return position < end - written.capacity() || start < position + length;
+	}
+
+	private void writeLatestHeader() throws IOException {
+		RingBufferState state = state();
+		writeHeader(state);
+		lastWrittenState = state;
+		headerStale = false;
+		deferredUpdates = 0;
+		lastHeaderWrite = System.nanoTime();
+		if (linearBuffer() instanceof SegmentedLinearBuffer)
+			((SegmentedLinearBuffer) linearBuffer()).release(state);
+	}
+
+	/**
+	 * Write the state in the slot not holding the last header
+	 */
+	private void writeHeader(RingBufferState state) throws IOException {
+		long sequence = ++headerSequence;
+		headerBuffer.clear();
+		putHeader(state, sequence, headerBuffer);
 		headerBuffer.flip();
+		long offset = (sequence & 1) * slotLength();
+		int written = 0;
+		while (headerBuffer.hasRemaining())
+			written += fileChannel.write(headerBuffer, offset + written);
+	}
+
+	@Override
+	protected void awaitStateDurable() throws IOException {
+		if (groupCommit != null)
+			groupCommit.await();
+	}
+
+	/**
+	 * Group commit force: data, then header
+	 */
+	private void forceAll() throws IOException {
+		RingBufferState state = lastWrittenState;
+		if (linearBuffer() instanceof MappedFileLinearBuffer)
+			((MappedFileLinearBuffer) linearBuffer()).force();
+		else if (linearBuffer() instanceof SegmentedLinearBuffer)
+			((SegmentedLinearBuffer) linearBuffer()).force();
+		fileChannel.force(false);
+		if (state != null && linearBuffer() instanceof SegmentedLinearBuffer)
+			((SegmentedLinearBuffer) linearBuffer()).release(state);
+	}
+
+	private void putHeader(RingBufferState state, long sequence, ByteBuffer buffer) {
+		buffer.putInt(HEADER_MAGIC);
+		buffer.putInt(HEADER_VERSION);
+		buffer.putLong(sequence);
+		writeHeader(state, buffer);
+		buffer.putInt(crc(buffer, buffer.position()));
+	}
+
+	/**
+	 * @return the length of the state fields written by
+	 *         {@link #writeHeader(RingBufferState, ByteBuffer)}
+	 */
+	protected int stateLength() {
+		return STATE_LENGTH;
+	}
+
+	private int slotLength() {
+		return SLOT_PREFIX_LENGTH + stateLength() + Integer.BYTES;
+	}
+
+	protected final int headerLength() {
+		return 2 * slotLength();
 	}
 
-	protected int headerLength() {
-		return HEADER_LENGTH;
+	/**
+	 * @return length of the version 1 header, used to upgrade existing files
+	 */
+	protected int legacyHeaderLength() {
+		return LEGACY_HEADER_LENGTH;
+	}
+
+	/**
+	 * Read the state fields following the slot magic, version and sequence
+	 */
+	protected RingBufferState readHeader(ByteBuffer buffer) throws IOException {
+		long pos = buffer.getLong();
+		long size = buffer.getLong();
+		long capacity = buffer.getLong();
+		return new RingBufferState(pos, 0, capacity, size);
 	}
 
-	protected RingBufferState readHeader(IntBuffer intBuffer) throws IOException {
+	/**
+	 * Write the state fields following the slot magic, version and sequence
+	 */
+	protected void writeHeader(RingBufferState state, ByteBuffer buffer) {
+		buffer.putLong(state.position().position());
+		buffer.putLong(state.size());
+		buffer.putLong(state.position().capacity());
+	}
+
+	protected RingBufferState readLegacyHeader(IntBuffer intBuffer) throws IOException {
 		int pos = intBuffer.get();
 		int size = intBuffer.get();
 		int capacity = intBuffer.get();
 		return new RingBufferState(pos, 0, capacity, size);
 	}
 
-	protected void writeHeader(RingBufferState state, IntBuffer intBuffer) {
-		intBuffer.put(state.position().position());
-		intBuffer.put(state.size());
-		intBuffer.put(state.position().capacity());
+	private void readFully(ByteBuffer target, long position) throws IOException {
+		long read = 0;
+		while (target.hasRemaining()) {
+			int last = fileChannel.read(target, position + read);
+			if (last < 0)
+				throw new EOFException();
+			read += last;
+		}
+	}
+
+	private void transferFully(long position, long count, WritableByteChannel target) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			transferred += fileChannel.transferTo(position + transferred, count - transferred, target);
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		try {
+			if (writeBehind != null)
+				writeBehind.close();
+		} finally {
+			closeBuffer();
+		}
+	}
+
+	private void closeBuffer() throws IOException {
 		super.close();
+		if (readBuffers != null)
+			readBuffers.close();
+		if (writeBuffers != null)
+			writeBuffers.close();
+		if (groupCommit != null && fileChannel.isOpen()) {
+			// headers written without waiting for them (capacity changes)
+			forceAll();
+		}
+		if (headerStale && fileChannel.isOpen()) {
+			synchronized (headerLock) {
+				writeLatestHeader();
+			}
+		}
+		if (linearBuffer() instanceof MappedFileLinearBuffer)
+			((MappedFileLinearBuffer) linearBuffer()).unmap();
+		else if (linearBuffer() instanceof SegmentedLinearBuffer)
+			((SegmentedLinearBuffer) linearBuffer()).close();
 		fileChannel.close();
 	}
 
 	@Override
-	protected LinearBuffer allocate(int capacity) throws IOException {
-		throw new UnsupportedOperationException();
+	public long remove(long length) throws IOException {
+		long removed = super.remove(length);
+		checkCompaction();
+		return removed;
+	}
+
+	/**
+	 * Shrink the file if the buffer size stayed under the compaction threshold
+	 * long enough.
+	 */
+	protected final void checkCompaction() throws IOException {
+		if (compactionThreshold <= 0 || storageMode == StorageMode.SEGMENTED)
+			return;
+		RingBufferState current = state();
+		if (current.capacity() <= requestedLimit || current.size() > current.capacity() * compactionThreshold) {
+			belowThresholdSince = 0;
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (belowThresholdSince == 0)
+			belowThresholdSince = now;
+		if (now - belowThresholdSince >= compactionDelay && compact())
+			belowThresholdSince = 0;
+	}
+
+	/**
+	 * Reduce the capacity, and the file length, to the smallest power of 2 holding
+	 * the buffer content, not lower than the requested limit.<br/>
+	 * Data are not moved, so this can only be done when the content is at the
+	 * start of the file (the ring position will get there after at most one
+	 * cycle), and when no writer is in use. It does not wait for either.
+	 * 
+	 * @return true if the capacity has been reduced
+	 */
+	public boolean compact() throws IOException {
+		if (storageMode == StorageMode.SEGMENTED)
+			return false;
+		RingBufferState current = state();
+		long end = current.position().position() + current.size();
+		long newCapacity = Math.max(requestedLimit, RingBufferUtils.nextPowerOfTwo(end + 1));
+		if (newCapacity >= current.capacity())
+			return false;
+		return decreaseCapacity(newCapacity);
+	}
+
+	/**
+	 * @return the current mapping of the data region, null if not
+	 *         {@link StorageMode#MAPPED}
+	 */
+	MappedFileLinearBuffer mapping() {
+		LinearBuffer linearBuffer = linearBuffer();
+		return linearBuffer instanceof MappedFileLinearBuffer ? (MappedFileLinearBuffer) linearBuffer : null;
+	}
+
+	@Override
+	protected LinearBuffer reallocate(LinearBuffer linearBuffer, long newCapacity) throws IOException {
+		if (linearBuffer instanceof MappedFileLinearBuffer)
+			return new MappedFileLinearBuffer(newCapacity);
+		return linearBuffer;
+	}
+
+	/**
+	 * Unmapped once the reads still using the previous mapping are done.
+	 */
+	@Override
+	protected void releaseReplaced(LinearBuffer replaced) throws IOException {
+		if (replaced instanceof MappedFileLinearBuffer)
+			((MappedFileLinearBuffer) replaced).unmap();
+	}
+
+	@Override
+	protected void capacityDecreased(long newCapacity, LinearBuffer replaced) throws IOException {
+		if (replaced instanceof MappedFileLinearBuffer) {
+			// truncating a mapped region would fault its readers (or fail on Windows)
+			((MappedFileLinearBuffer) replaced).awaitUnmapped();
+		}
+		fileChannel.truncate(headerLength() + newCapacity);
+	}
+
+	/**
+	 * Grow the data region of the file in place: data keep their position, and
+	 * the wrapped tail is relocated after the previous end of the region by the
+	 * linear buffer copy. Readers can keep reading the previous region meanwhile.
+	 */
+	@Override
+	protected LinearBuffer allocate(long capacity) throws IOException {
+		if (storageMode == StorageMode.SEGMENTED)
+			throw new UnsupportedOperationException("capacity of " + StorageMode.SEGMENTED + " storage is fixed");
+		long length = headerLength() + capacity;
+		if (preallocate) {
+			preallocate(fileChannel, length);
+		} else if (fileChannel.size() < length) {
+			// extend the file now, its length must match the capacity once the state
+			// is written
+			ByteBuffer last = ByteBuffer.allocate(1);
+			while (last.hasRemaining())
+				fileChannel.write(last, length - 1);
+		}
+		if (storageMode == StorageMode.MAPPED) {
+			// previous mapping is released once swapped, see releaseReplaced
+			return new MappedFileLinearBuffer(capacity);
+		}
+		return linearBuffer();
+	}
+
+	/**
+	 * Write zeros from the end of the channel up to length, so that the file
+	 * blocks are allocated before being written. The file length records what has
+	 * been preallocated: existing content is never overwritten.
+	 */
+	private static void preallocate(FileChannel channel, long length) throws IOException {
+		long position = channel.size();
+		if (position >= length)
+			return;
+		ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(PREALLOCATION_CHUNK_SIZE, length - position));
+		try {
+			while (position < length) {
+				zeros.clear();
+				zeros.limit((int) Math.min(zeros.capacity(), length - position));
+				while (zeros.hasRemaining())
+					position += channel.write(zeros, position);
+			}
+		} finally {
+			RingBufferUtils.release(zeros);
+		}
+	}
+
+	private static long remaining(ByteBuffer[] buffers) {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers)
+			remaining += buffer.remaining();
+		return remaining;
+	}
+
+	/**
+	 * Copy data of the file data region to another position of it
+	 */
+	private void transferInFile(long position, long targetPosition, long length) throws IOException {
+		int headerLength = headerLength();
+		synchronized (channelPositionLock) {
+			fileChannel.position(headerLength + targetPosition);
+			transferFully(headerLength + position, length, fileChannel);
+		}
 	}
 
 	private FileChannel openChannel() throws IOException {
+		return openChannel(file, true);
+	}
+
+	private FileChannel openChannel(Path path, boolean create) throws IOException {
 		FileChannel channel = null;
 		try {
-			List<StandardOpenOption> options = new ArrayList<>(Arrays.asList(StandardOpenOption.CREATE,
-					StandardOpenOption.READ, StandardOpenOption.WRITE));
+			List<StandardOpenOption> options = new ArrayList<>(Arrays.asList(StandardOpenOption.READ,
+					StandardOpenOption.WRITE));
+			if (create) {
+				options.add(StandardOpenOption.CREATE);
+			}
 			if (syncMode == SyncMode.SYNC) {
 				options.add(StandardOpenOption.DSYNC);
 			}
-			return FileChannel.open(file, options.toArray(new StandardOpenOption[options.size()]));
+			return FileChannel.open(path, options.toArray(new StandardOpenOption[options.size()]));
 		} catch (IOException e) {
 			RingBufferUtils.closeQuietly(channel);
 			throw e;
 		}
 	}
 
+	/**
+	 * Move the data of a single file buffer to segments if needed, then delete the
+	 * segments left by removed data.
+	 */
+	private RingBufferState openSegments(RingBufferState state, SegmentedLinearBuffer segments)
+			throws IOException {
+		if (state.capacity() != SEGMENTED_CAPACITY) {
+			// created with a single data region, rewind it at the start of the first
+			// segment
+			RingBufferState segmentedState = state.shrink(SEGMENTED_CAPACITY);
+			long position = state.position().position();
+			if (state.wrapped()) {
+				long tail = state.capacity() - position;
+				copyToSegments(position, tail, segments, 0);
+				copyToSegments(0, state.writePosition(), segments, tail);
+			} else {
+				copyToSegments(position, state.size(), segments, 0);
+			}
+			segments.force();
+			writeState(segmentedState);
+			state = segmentedState;
+		}
+		// data region is never used in the buffer file, even after an interrupted
+		// migration
+		if (fileChannel.size() > headerLength())
+			fileChannel.truncate(headerLength());
+		segments.deleteUnused(state);
+		return state;
+	}
+
+	private void copyToSegments(long position, long length, SegmentedLinearBuffer segments, long segmentsPosition)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_TRANSFER_SIZE);
+		try {
+			long done = 0;
+			while (done < length) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), length - done));
+				readFully(buffer, headerLength() + position + done);
+				buffer.flip();
+				int chunk = buffer.remaining();
+				segments.write(segmentsPosition + done, buffer);
+				done += chunk;
+			}
+		} finally {
+			RingBufferUtils.release(buffer);
+		}
+	}
+
 	/**
 	 * Resize the current buffer to the closest capacity matching it's size, not
 	 * lower to requested capacity.<br/>
 	 * The linear buffer is transfered to be continuous from 0 to size
 	 */
 	private RingBufferState shrink(RingBufferState state) throws IOException {
-		int required = Math.max(requestedLimit, RingBufferUtils.nextPowerOfTwo(state.size()));
+		long required = Math.max(requestedLimit, RingBufferUtils.nextPowerOfTwo(state.size()));
 		if (required < state.capacity()) {
-			int position = state.position().position();
+			long position = state.position().position();
 			if (state.size() > 0 && position > 0) {
 				// we have some data to copy
 				rewindBuffer(state);
@@ -180,18 +1035,12 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 		if (state.wrapped()) {
 			int headerLength = headerLength();
 			long size = fileChannel.size();
-			int expectedSize = headerLength + state.capacity();
+			long expectedSize = headerLength + state.capacity();
 			if (size != expectedSize) {
 				throw new IllegalStateException("Unexpected FileChannel size " + size + ", expecting " + expectedSize);
 			}
 			fileChannel.position(size);
-			int remaining = state.writePosition();
-			int transferred = 0;
-			while (remaining > 0) {
-				int t = (int) fileChannel.transferTo(headerLength + transferred, remaining, fileChannel);
-				remaining -= t;
-				transferred += t;
-			}
+			transferFully(headerLength, state.writePosition(), fileChannel);
 		}
 	}
 
@@ -200,7 +1049,7 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 	 * Use a temporary file to avoid losing data if something goes wrong.
 	 */
 	private void rewindBuffer(RingBufferState state) throws IOException {
-		int position = state.position().position();
+		long position = state.position().position();
 		Path tempFile = file.getParent().resolve(file.getFileName() + ".tmp");
 		try (FileChannel tempFileChannel = FileChannel.open(tempFile,
 				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
@@ -212,15 +1061,22 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 			if (state.wrapped()) {
 				// copy tail of linear buffer (start of ring buffer) to start of new linear
 				// buffer
-				fileChannel.transferTo(position + headerLength, state.capacity() - position, tempFileChannel);
+				transferFully(position + headerLength, state.capacity() - position, tempFileChannel);
 				// copy start of linear buffer (end of ring buffer) after start of ring buffer
-				fileChannel.transferTo(headerLength, state.writePosition(), tempFileChannel);
+				transferFully(headerLength, state.writePosition(), tempFileChannel);
 			} else {
 				// copy linear buffer to start of new linear buffer
-				fileChannel.transferTo(position + headerLength, state.size(), tempFileChannel);
+				transferFully(position + headerLength, state.size(), tempFileChannel);
 			}
 		}
+		replaceFile(tempFile);
+	}
 
+	/**
+	 * Replace the buffer file with tempFile, keeping a backup until the file
+	 * channel is reopened.
+	 */
+	private void replaceFile(Path tempFile) throws IOException {
 		// close current file channel to delete move it
 		fileChannel.close();
 
@@ -241,11 +1097,20 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 	public class FileLinearBuffer implements LinearBuffer {
 
 		@Override
-		public void read(int position, byte[] target, int offset, int length) throws IOException {
-			ByteBuffer dst = ByteBuffer.wrap(target, offset, length);
-			int read = 0;
-			while (dst.hasRemaining()) {
-				int last = fileChannel.read(dst, headerLength() + position + read);
+		public void read(long position, byte[] target, int offset, int length) throws IOException {
+			read(position, ByteBuffer.wrap(target, offset, length));
+		}
+
+		@Override
+		public void write(long position, byte[] source, int offset, int length) throws IOException {
+			write(position, ByteBuffer.wrap(source, offset, length));
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) throws IOException {
+			long read = 0;
+			while (target.hasRemaining()) {
+				int last = fileChannel.read(target, headerLength() + position + read);
 				if (last < 0)
 					throw new EOFException();
 				read += last;
@@ -253,18 +1118,447 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 		}
 
 		@Override
-		public void write(int position, byte[] source, int offset, int length) throws IOException {
-			ByteBuffer src = ByteBuffer.wrap(source, offset, length);
-			int write = 0;
-			while (src.hasRemaining()) {
-				write += fileChannel.write(src, headerLength() + position + write);
+		public void write(long position, ByteBuffer source) throws IOException {
+			beforeWrite(position, source.remaining());
+			long write = 0;
+			while (source.hasRemaining()) {
+				write += fileChannel.write(source, headerLength() + position + write);
+			}
+		}
+
+		@Override
+		public long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+			long done = 0;
+			while (done < length) {
+				long last = fileChannel.transferTo(headerLength() + position + done, length - done, target);
+				if (last <= 0)
+					break;
+				done += last;
+			}
+			return done;
+		}
+
+		/**
+		 * Single scattering read from the channel position, FileChannel has no
+		 * positional vectored read
+		 */
+		@Override
+		public void read(long position, ByteBuffer[] targets) throws IOException {
+			long length = remaining(targets);
+			synchronized (channelPositionLock) {
+				fileChannel.position(headerLength() + position);
+				long read = 0;
+				while (read < length) {
+					long last = fileChannel.read(targets);
+					if (last < 0)
+						throw new EOFException();
+					read += last;
+				}
+			}
+		}
+
+		/**
+		 * Single gathering write from the channel position
+		 */
+		@Override
+		public void write(long position, ByteBuffer[] sources) throws IOException {
+			long length = remaining(sources);
+			beforeWrite(position, length);
+			synchronized (channelPositionLock) {
+				fileChannel.position(headerLength() + position);
+				long write = 0;
+				while (write < length)
+					write += fileChannel.write(sources);
+			}
+		}
+
+		/**
+		 * Only used to grow the file buffer: target is this buffer, or a view of the
+		 * same file.
+		 */
+		@Override
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length) throws IOException {
+			if (position != targetPosition)
+				transferInFile(position, targetPosition, length);
+		}
+	}
+
+	/**
+	 * {@link LinearBuffer} mapping the whole data region of the file in memory.<br/>
+	 * The region is split in power of 2 sized segments since a single
+	 * {@link MappedByteBuffer} is limited to {@link Integer#MAX_VALUE} bytes.
+	 * Mapping is done once the file layout is final (after shrink or tail
+	 * transfer), so it always matches the state capacity.
+	 */
+	public class MappedFileLinearBuffer implements LinearBuffer {
+
+		private final MappedByteBuffer[] segments;
+
+		private final int segmentShift;
+
+		private final long segmentMask;
+
+		private final MemoryReleaseGuard guard = new MemoryReleaseGuard(this::releaseSegments);
+
+		public MappedFileLinearBuffer(long capacity) throws IOException {
+			int segmentSize = (int) Math.min(mappedSegmentSize, capacity);
+			this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+			this.segmentMask = segmentSize - 1;
+			int count = (int) ((capacity + segmentSize - 1) >>> segmentShift);
+			segments = new MappedByteBuffer[count];
+			int headerLength = headerLength();
+			try {
+				for (int i = 0; i < count; i++) {
+					long offset = (long) i << segmentShift;
+					int length = (int) Math.min(segmentSize, capacity - offset);
+					segments[i] = fileChannel.map(MapMode.READ_WRITE, headerLength + offset, length);
+				}
+			} catch (IOException e) {
+				unmap();
+				throw e;
+			}
+		}
+
+		@Override
+		public void read(long position, byte[] target, int offset, int length) throws IOException {
+			guard.enter();
+			try {
+				int done = 0;
+				while (done < length) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = Math.min(length - done, segment.remaining());
+					segment.get(target, offset + done, chunk);
+					done += chunk;
+				}
+			} finally {
+				guard.exit();
 			}
 		}
 
 		@Override
-		public void copyTo(LinearBuffer target, int position, int targetPosition, int length) throws IOException {
+		public void write(long position, byte[] source, int offset, int length) throws IOException {
+			guard.enter();
+			try {
+				beforeWrite(position, length);
+				int done = 0;
+				while (done < length) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = Math.min(length - done, segment.remaining());
+					segment.put(source, offset + done, chunk);
+					done += chunk;
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) throws IOException {
+			guard.enter();
+			try {
+				int done = 0;
+				while (target.hasRemaining()) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = Math.min(target.remaining(), segment.remaining());
+					segment.limit(segment.position() + chunk);
+					target.put(segment);
+					done += chunk;
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void write(long position, ByteBuffer source) throws IOException {
+			guard.enter();
+			try {
+				beforeWrite(position, source.remaining());
+				int done = 0;
+				while (source.hasRemaining()) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = Math.min(source.remaining(), segment.remaining());
+					int limit = source.limit();
+					source.limit(source.position() + chunk);
+					segment.put(source);
+					source.limit(limit);
+					done += chunk;
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+
+		/**
+		 * Write the mapped segments directly to target
+		 */
+		@Override
+		public long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+			guard.enter();
+			try {
+				long done = 0;
+				while (done < length) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = (int) Math.min(length - done, segment.remaining());
+					segment.limit(segment.position() + chunk);
+					int written = RingBufferUtils.writeFully(segment, target);
+					done += written;
+					if (written < chunk)
+						break;
+				}
+				return done;
+			} finally {
+				guard.exit();
+			}
+		}
+
+		/**
+		 * Only used to grow the file buffer, target is a mapping of the same file.
+		 */
+		@Override
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length) throws IOException {
+			guard.enter();
+			try {
+				if (position == targetPosition)
+					return;
+				long done = 0;
+				while (done < length) {
+					ByteBuffer segment = segment(position + done);
+					int chunk = (int) Math.min(length - done, segment.remaining());
+					segment.limit(segment.position() + chunk);
+					target.write(targetPosition + done, segment);
+					done += chunk;
+				}
+				if (syncMode != SyncMode.NONE && target instanceof MappedFileLinearBuffer) {
+					// the state written next references the copied data
+					((MappedFileLinearBuffer) target).force();
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+
+		/**
+		 * Must be used between {@link MemoryReleaseGuard#enter()} and
+		 * {@link MemoryReleaseGuard#exit()}
+		 * 
+		 * @return a view of the segment containing position, positioned on it
+		 */
+		private ByteBuffer segment(long position) {
+			ByteBuffer segment = segments[(int) (position >>> segmentShift)].duplicate();
+			segment.position((int) (position & segmentMask));
+			return segment;
+		}
+
+		public void force() {
+			if (!guard.tryEnter())
+				return;
+			try {
+				for (MappedByteBuffer segment : segments) {
+					if (segment != null)
+						segment.force();
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+
+		/**
+		 * Release the mappings once the reads and writes in progress are done
+		 */
+		void unmap() {
+			guard.release();
+		}
+
+		/**
+		 * Wait for the mappings to be released after {@link #unmap()}
+		 */
+		void awaitUnmapped() {
+			guard.awaitFreed();
+		}
+
+		private void releaseSegments() {
+			for (int i = 0; i < segments.length; i++) {
+				RingBufferUtils.release(segments[i]);
+				segments[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * {@link LinearBuffer} storing the data region in segment files named after
+	 * the buffer file and the segment index (queue.dat.000000000042).<br/>
+	 * Segments are opened on first access and deleted by
+	 * {@link #release(RingBufferState)} once the ring position went past them, so
+	 * disk space is reclaimed without rewinding the buffer.
+	 */
+	public class SegmentedLinearBuffer implements LinearBuffer {
+
+		private final Map<Long, FileChannel> segments = new ConcurrentHashMap<>();
+
+		private final int segmentShift;
+
+		private final long segmentMask;
+
+		private volatile boolean closed;
+
+		public SegmentedLinearBuffer() {
+			this.segmentShift = Long.numberOfTrailingZeros(segmentSize);
+			this.segmentMask = segmentSize - 1;
+		}
+
+		@Override
+		public void read(long position, byte[] target, int offset, int length) throws IOException {
+			read(position, ByteBuffer.wrap(target, offset, length));
+		}
+
+		@Override
+		public void write(long position, byte[] source, int offset, int length) throws IOException {
+			write(position, ByteBuffer.wrap(source, offset, length));
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) throws IOException {
+			long done = 0;
+			while (target.hasRemaining()) {
+				long index = (position + done) >>> segmentShift;
+				long offset = (position + done) & segmentMask;
+				int chunk = (int) Math.min(target.remaining(), segmentSize - offset);
+				int limit = target.limit();
+				target.limit(target.position() + chunk);
+				try {
+					FileChannel channel = segment(index, false);
+					while (target.hasRemaining()) {
+						int last = channel.read(target, offset + chunk - target.remaining());
+						if (last < 0)
+							throw new EOFException();
+					}
+				} catch (ClosedChannelException | NoSuchFileException e) {
+					throw releasedSegment(index);
+				} finally {
+					target.limit(limit);
+				}
+				done += chunk;
+			}
+		}
+
+		@Override
+		public void write(long position, ByteBuffer source) throws IOException {
+			long done = 0;
+			while (source.hasRemaining()) {
+				long index = (position + done) >>> segmentShift;
+				long offset = (position + done) & segmentMask;
+				int chunk = (int) Math.min(source.remaining(), segmentSize - offset);
+				int limit = source.limit();
+				source.limit(source.position() + chunk);
+				try {
+					FileChannel channel = segment(index, true);
+					while (source.hasRemaining()) {
+						channel.write(source, offset + chunk - source.remaining());
+					}
+				} catch (ClosedChannelException e) {
+					throw releasedSegment(index);
+				} finally {
+					source.limit(limit);
+				}
+				done += chunk;
+			}
+		}
+
+		@Override
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length) throws IOException {
 			throw new UnsupportedOperationException();
 		}
+
+		private FileChannel segment(long index, boolean create) throws IOException {
+			FileChannel channel = segments.get(index);
+			if (channel != null)
+				return channel;
+			if (closed)
+				throw new RingBufferClosedException();
+			try {
+				return segments.computeIfAbsent(index, i -> {
+					try {
+						FileChannel segment = openChannel(segmentFile(i), create);
+						if (create && preallocate) {
+							try {
+								preallocate(segment, segmentSize);
+							} catch (IOException e) {
+								RingBufferUtils.closeQuietly(segment);
+								throw e;
+							}
+						}
+						return segment;
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+
+		private IOException releasedSegment(long index) {
+			if (closed)
+				return new RingBufferClosedException();
+			return new RingBufferConcurrentModificationException("segment " + index + " has been released");
+		}
+
+		private Path segmentFile(long index) {
+			return file.resolveSibling(String.format("%s.%012d", file.getFileName(), index));
+		}
+
+		/**
+		 * @return true if the segment is entirely before the state position. Segments
+		 *         after the write position are kept since a writer can be filling them
+		 *         before publishing its data.
+		 */
+		private boolean removed(long index, RingBufferState state) {
+			long behind = state.wrap(state.position().position() - (index << segmentShift));
+			return behind >= segmentSize && behind <= state.capacity() / 2;
+		}
+
+		/**
+		 * Close and delete the open segments that have been removed from state
+		 */
+		void release(RingBufferState state) throws IOException {
+			for (Long index : segments.keySet()) {
+				if (removed(index, state)) {
+					RingBufferUtils.closeQuietly(segments.remove(index));
+					Files.deleteIfExists(segmentFile(index));
+				}
+			}
+		}
+
+		/**
+		 * Delete the segment files of removed data, including those not opened by this
+		 * buffer (left by a previous run).
+		 */
+		void deleteUnused(RingBufferState state) throws IOException {
+			String prefix = file.getFileName() + ".";
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(file.toAbsolutePath().getParent(),
+					prefix + "*")) {
+				for (Path segmentFile : files) {
+					String suffix = segmentFile.getFileName().toString().substring(prefix.length());
+					if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)
+							&& removed(Long.parseLong(suffix), state)) {
+						Files.deleteIfExists(segmentFile);
+					}
+				}
+			}
+		}
+
+		public void force() throws IOException {
+			for (FileChannel channel : segments.values()) {
+				channel.force(false);
+			}
+		}
+
+		void close() {
+			closed = true;
+			segments.values().forEach(RingBufferUtils::closeQuietly);
+			segments.clear();
+		}
 	}
 
 	public static Builder builder(File file) {
@@ -279,7 +1573,7 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 
 		private File file = new File("queue.dat");
 
-		private int limit = 8 * 1024 * 1024;
+		private long limit = 8 * 1024 * 1024;
 
 		private int readerCacheSize = 8 * 1024;
 
@@ -289,6 +1583,32 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 
 		private long writeTimeout = 0;
 
+		private StorageMode storageMode = StorageMode.CHANNEL;
+
+		private int mappedSegmentSize = DEFAULT_MAPPED_SEGMENT_SIZE;
+
+		private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+		private ConcurrencyMode concurrencyMode = ConcurrencyMode.LOCKING;
+
+		private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+		private long maxCapacity;
+
+		private boolean preallocate;
+
+		private double compactionThreshold;
+
+		private long compactionDelay = 60 * 1000;
+
+		private long groupCommitWindow = -1;
+
+		private int writeBehindCapacity;
+
+		private int deferredHeaderUpdates;
+
+		private long deferredHeaderDelay;
+
 		protected Builder() {}
 
 		public Builder(File file) {
@@ -300,11 +1620,32 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 			return this;
 		}
 
-		public Builder withLimit(int limit) {
+		public Builder withLimit(long limit) {
 			this.limit = limit;
 			return this;
 		}
 
+		/**
+		 * Let the file grow beyond the limit while writing, up to this capacity. The
+		 * file is shrunk back to the limit when reopened or compacted, if its content
+		 * allows it. By default the limit is also the maximum capacity, and the file
+		 * grows without maximum if the limit is <= 0.
+		 */
+		public Builder withMaxCapacity(long maxCapacity) {
+			this.maxCapacity = maxCapacity;
+			return this;
+		}
+
+		/**
+		 * Allocate the file blocks up front, by writing zeros in large chunks, when
+		 * the file is created, grown, or when a segment is created. Writes then never
+		 * extend the file.
+		 */
+		public Builder withPreallocation(boolean preallocate) {
+			this.preallocate = preallocate;
+			return this;
+		}
+
 		public Builder withDefaultReaderCache(int defaultReaderCache) {
 			this.readerCacheSize = defaultReaderCache;
 			return this;
@@ -325,6 +1666,101 @@ public class FileRingBuffer extends AbstractStreamRingBuffer {
 			return this;
 		}
 
+		public Builder withStorageMode(StorageMode storageMode) {
+			this.storageMode = storageMode;
+			return this;
+		}
+
+		/**
+		 * Size of each mapped region when using {@link StorageMode#MAPPED}, must be a
+		 * power of 2.
+		 */
+		public Builder withMappedSegmentSize(int mappedSegmentSize) {
+			this.mappedSegmentSize = mappedSegmentSize;
+			return this;
+		}
+
+		/**
+		 * Size of each segment file when using {@link StorageMode#SEGMENTED}, must be
+		 * a power of 2.
+		 */
+		public Builder withSegmentSize(long segmentSize) {
+			this.segmentSize = segmentSize;
+			return this;
+		}
+
+		/**
+		 * Enable automatic compaction on remove: the file is shrunk once the buffer
+		 * size stayed under this fraction of its capacity for the compaction delay
+		 * (see {@link FileRingBuffer#compact()}). Disabled if <= 0 (default).
+		 */
+		public Builder withCompactionThreshold(double compactionThreshold) {
+			this.compactionThreshold = compactionThreshold;
+			return this;
+		}
+
+		/**
+		 * Time, in milliseconds, the size must stay under the compaction threshold
+		 * before compacting.
+		 */
+		public Builder withCompactionDelay(long compactionDelay) {
+			this.compactionDelay = compactionDelay;
+			return this;
+		}
+
+		/**
+		 * With {@link SyncMode#FORCE}, share a single force between the state
+		 * updates of concurrent threads (group commit). A thread updating the state
+		 * waits at most this window for other updates to join, then until the force
+		 * covering its update is done.
+		 */
+		public Builder withGroupCommitWindow(long window, TimeUnit unit) {
+			this.groupCommitWindow = unit.toNanos(window);
+			return this;
+		}
+
+		/**
+		 * Enable write behind: writers stage their data in memory, up to this
+		 * capacity in bytes, and a dedicated thread writes them to the file. Written
+		 * data become visible to readers once written by this thread (see
+		 * {@link FileRingBuffer#awaitWritten()}). Can not be used with
+		 * {@link ConcurrencyMode#MPSC}, writers are always concurrent. Disabled if
+		 * <= 0 (default).
+		 */
+		public Builder withWriteBehind(int capacity) {
+			this.writeBehindCapacity = capacity;
+			return this;
+		}
+
+		/**
+		 * With {@link SyncMode#NONE}, defer the header writes: the in-memory state is
+		 * authoritative and the header is written once this number of state updates
+		 * is reached, or on the first update after this delay, and on close. After a
+		 * crash, the buffer is restored to the last written header: removed data are
+		 * read again and the last written data are lost. The header is also written
+		 * before overwriting data it still references. Disabled if updates <= 1
+		 * (default).
+		 */
+		public Builder withDeferredHeader(int updates, long delay, TimeUnit unit) {
+			this.deferredHeaderUpdates = updates;
+			this.deferredHeaderDelay = unit.toNanos(delay);
+			return this;
+		}
+
+		public Builder withConcurrencyMode(ConcurrencyMode concurrencyMode) {
+			this.concurrencyMode = concurrencyMode;
+			return this;
+		}
+
+		/**
+		 * How readers wait for data and writers for free space, default to
+		 * {@link WaitStrategy#BLOCKING}.
+		 */
+		public Builder withWaitStrategy(WaitStrategy waitStrategy) {
+			this.waitStrategy = waitStrategy;
+			return this;
+		}
+
 		public FileRingBuffer build() throws IOException {
 			return new FileRingBuffer(this);
 		}
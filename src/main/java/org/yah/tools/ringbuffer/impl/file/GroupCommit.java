@@ -0,0 +1,100 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.yah.tools.ringbuffer.impl.RingBufferUtils.IORunnable;
+
+/**
+ * Share a single force between the state updates done by concurrent threads.<br/>
+ * Each header write is counted by {@link #written()}. A thread that must wait
+ * for its update to be durable calls {@link #await()}: the first one becomes the
+ * leader, waits for the latency window to let other updates join, and forces
+ * every header written until then. Others wait for a force covering their
+ * update, or become the next leader.
+ */
+final class GroupCommit {
+
+	private final IORunnable force;
+
+	private final long windowNanos;
+
+	/**
+	 * number of header written
+	 */
+	private long written;
+
+	/**
+	 * number of header made durable
+	 */
+	private long forced;
+
+	private boolean forcing;
+
+	private long forceCount;
+
+	GroupCommit(IORunnable force, long window, TimeUnit unit) {
+		this.force = force;
+		this.windowNanos = unit.toNanos(window);
+	}
+
+	/**
+	 * Must be called after each header write.
+	 */
+	synchronized void written() {
+		written++;
+	}
+
+	/**
+	 * Wait until every header written before this call is durable.
+	 */
+	void await() throws IOException {
+		synchronized (this) {
+			long target = written;
+			while (forced < target) {
+				if (!forcing) {
+					forcing = true;
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for group commit", e);
+				}
+			}
+			if (forced >= target)
+				return;
+		}
+
+		// leader
+		try {
+			if (windowNanos > 0)
+				LockSupport.parkNanos(windowNanos);
+			long covered;
+			synchronized (this) {
+				covered = written;
+			}
+			force.run();
+			synchronized (this) {
+				forced = Math.max(forced, covered);
+				forceCount++;
+			}
+		} finally {
+			synchronized (this) {
+				forcing = false;
+				// on failure, a waiter will take the lead and try again
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of force done
+	 */
+	synchronized long forceCount() {
+		return forceCount;
+	}
+
+}
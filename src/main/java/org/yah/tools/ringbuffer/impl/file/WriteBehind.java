@@ -0,0 +1,304 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yah.tools.ringbuffer.impl.MultiProducerOutputStream.RecordSink;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+
+/**
+ * Stage the data written by producers in memory, and write them to the ring
+ * buffer from a dedicated I/O thread.<br/>
+ * Producers only pay for a copy in the staging ring, allocated once with the
+ * staging capacity, they block only when there is not enough free space in it.
+ * A write larger than the staging capacity is not copied, its producer waits
+ * for the staging ring to be empty and for the I/O thread to write it. The I/O
+ * thread drains every staged byte at once and writes them with a single
+ * writer, so the file gets large sequential writes and a single header update
+ * per drain.<br/>
+ * Progress is tracked with two watermarks, in bytes since creation: the staged
+ * watermark, and the written watermark (data written and published by the ring
+ * buffer state, with the durability of its sync mode).<br/>
+ * If a write fails, the unwritten data stay staged and every following write,
+ * flush or close fails with the stored error.
+ */
+final class WriteBehind implements RecordSink, Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehind.class);
+
+	interface BatchWriter {
+		void write(ByteBuffer[] sources, int records) throws IOException;
+	}
+
+	private static final class Waiter {
+
+		private final long watermark;
+
+		private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+		private Waiter(long watermark) {
+			this.watermark = watermark;
+		}
+	}
+
+	private final BatchWriter writer;
+
+	private final byte[] staging;
+
+	private final Thread thread;
+
+	/**
+	 * batches handed to the writer: the staged range, split in two when it wraps
+	 * around the end of the staging ring, or the oversized write
+	 */
+	private final ByteBuffer[] contiguous;
+
+	private final ByteBuffer[] wrapping;
+
+	private final ByteBuffer[] oversizedBatch = new ByteBuffer[1];
+
+	private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+	/**
+	 * staging ring index of the first byte not written yet
+	 */
+	private int head;
+
+	/**
+	 * bytes staged but not written yet, including the ones being written
+	 */
+	private int stagedBytes;
+
+	private int stagedRecords;
+
+	/**
+	 * write larger than the staging ring, written from the producer array
+	 */
+	private ByteBuffer oversized;
+
+	private int oversizedRecords;
+
+	private long stagedWatermark;
+
+	private volatile long writtenWatermark;
+
+	private IOException failure;
+
+	private boolean closed;
+
+	WriteBehind(String name, int capacity, BatchWriter writer) {
+		this.writer = writer;
+		this.staging = new byte[capacity];
+		this.contiguous = new ByteBuffer[] { ByteBuffer.wrap(staging) };
+		this.wrapping = new ByteBuffer[] { contiguous[0], ByteBuffer.wrap(staging) };
+		this.thread = new Thread(this::run, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public synchronized void write(byte[] source, int offset, int length, int records) throws IOException {
+		if (length > staging.length) {
+			writeOversized(source, offset, length, records);
+			return;
+		}
+		while (!closed && failure == null && (oversized != null || staging.length - stagedBytes < length)) {
+			waitForSpace();
+		}
+		checkState();
+		int tail = (head + stagedBytes) % staging.length;
+		int first = Math.min(length, staging.length - tail);
+		System.arraycopy(source, offset, staging, tail, first);
+		System.arraycopy(source, offset + first, staging, 0, length - first);
+		stagedBytes += length;
+		stagedRecords += records;
+		stagedWatermark += length;
+		notifyAll();
+	}
+
+	/**
+	 * Hand the source to the I/O thread once the staging ring is empty, and wait
+	 * for it to be written: the producer can reuse it afterward.
+	 */
+	private void writeOversized(byte[] source, int offset, int length, int records) throws IOException {
+		while (!closed && failure == null && (oversized != null || stagedBytes > 0)) {
+			waitForSpace();
+		}
+		checkState();
+		oversized = ByteBuffer.wrap(source, offset, length);
+		oversizedRecords = records;
+		stagedWatermark += length;
+		long watermark = stagedWatermark;
+		notifyAll();
+
+		// the I/O thread reads the source until written, even if interrupted
+		boolean interrupted = false;
+		while (writtenWatermark < watermark && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		checkState();
+	}
+
+	private void waitForSpace() throws IOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for staging space", e);
+		}
+	}
+
+	synchronized long stagedWatermark() {
+		return stagedWatermark;
+	}
+
+	long writtenWatermark() {
+		return writtenWatermark;
+	}
+
+	/**
+	 * @return a future completed with the written watermark once everything
+	 *         staged before this call is written
+	 */
+	synchronized CompletableFuture<Long> awaitWritten() {
+		if (failure != null) {
+			CompletableFuture<Long> future = new CompletableFuture<>();
+			future.completeExceptionally(failure);
+			return future;
+		}
+		if (writtenWatermark >= stagedWatermark)
+			return CompletableFuture.completedFuture(writtenWatermark);
+		Waiter waiter = new Waiter(stagedWatermark);
+		waiters.add(waiter);
+		return waiter.future;
+	}
+
+	/**
+	 * Stop accepting data, wait for staged data to be written and stop the I/O
+	 * thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for write behind thread", e);
+		}
+		synchronized (this) {
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	private void checkState() throws IOException {
+		if (failure != null)
+			throw new IOException("write behind failed", failure);
+		if (closed)
+			throw new RingBufferClosedException();
+	}
+
+	private void run() {
+		while (true) {
+			ByteBuffer[] batch;
+			int batchLength;
+			int records;
+			synchronized (this) {
+				while (stagedBytes == 0 && oversized == null && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// only stopped by close
+					}
+				}
+				if (oversized != null) {
+					// only staged once the staging ring is empty
+					oversizedBatch[0] = oversized;
+					batch = oversizedBatch;
+					batchLength = oversized.remaining();
+					records = oversizedRecords;
+				} else if (stagedBytes > 0) {
+					batchLength = stagedBytes;
+					records = stagedRecords;
+					batch = stagedBatch(batchLength);
+				} else {
+					return;
+				}
+			}
+
+			try {
+				writer.write(batch, records);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.error("Error writing staged data", e);
+				fail(e instanceof IOException ? (IOException) e : new IOException(e));
+				return;
+			} finally {
+				oversizedBatch[0] = null;
+			}
+
+			synchronized (this) {
+				if (batch == oversizedBatch) {
+					oversized = null;
+				} else {
+					head = (head + batchLength) % staging.length;
+					stagedBytes -= batchLength;
+					stagedRecords -= records;
+				}
+				writtenWatermark += batchLength;
+				while (!waiters.isEmpty() && waiters.peek().watermark <= writtenWatermark)
+					waiters.poll().future.complete(writtenWatermark);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the staging ring range of the first length bytes from head
+	 */
+	private ByteBuffer[] stagedBatch(int length) {
+		int end = head + length;
+		if (end <= staging.length) {
+			range(contiguous[0], head, end);
+			return contiguous;
+		}
+		range(wrapping[0], head, staging.length);
+		range(wrapping[1], 0, end - staging.length);
+		return wrapping;
+	}
+
+	private static void range(ByteBuffer buffer, int position, int limit) {
+		buffer.clear();
+		buffer.position(position);
+		buffer.limit(limit);
+	}
+
+	/**
+	 * Keep the unwritten data staged, the producers accepted them: only the
+	 * stored error is reported from now on.
+	 */
+	private synchronized void fail(IOException e) {
+		failure = e;
+		while (!waiters.isEmpty())
+			waiters.poll().future.completeExceptionally(e);
+		notifyAll();
+	}
+
+}
@@ -2,27 +2,47 @@ package org.yah.tools.queue.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.yah.tools.queue.ObjectQueue;
 import org.yah.tools.queue.PollableObjectQueue;
+import org.yah.tools.queue.PolledElement;
 import org.yah.tools.queue.QueueCursor;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.StorageMode;
 
 public class PersistentObjectQueueTest {
 
 	private PersistentObjectQueue<String> createQueue(boolean delete) throws IOException {
+		return createQueue(delete, PersistentObjectQueue.builder());
+	}
+
+	private PersistentObjectQueue<String> createQueue(boolean delete, PersistentObjectQueue.Builder<String> builder)
+			throws IOException {
 		File file = new File("target/test/ring-buffers/object-buffer.dat");
 		if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
 			throw new IOException("Unable to create directory " + file.getParentFile());
 		if (delete && file.exists())
 			file.delete();
-		return PersistentObjectQueue.builder().withFile(file).build();
+		return builder.withFile(file).build();
 	}
 
 	private PollableObjectQueue<String> newQueue() throws IOException {
@@ -83,6 +103,415 @@ public class PersistentObjectQueueTest {
 		}
 	}
 
+	@Test
+	public void test_concurrent_offer() throws Exception {
+		int producers = 4;
+		int elements = 2_000;
+		try (PollableObjectQueue<String> buffer = createQueue(true, PersistentObjectQueue.builder()
+			.withConcurrencyMode(ConcurrencyMode.MPSC))) {
+			ExecutorService executor = Executors.newFixedThreadPool(producers);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int p = 0; p < producers; p++) {
+				String prefix = "producer" + p + "-";
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < elements; i += 2)
+						buffer.offer(Arrays.asList(prefix + i, prefix + (i + 1)));
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+			executor.shutdown();
+			assertEquals(producers * elements, buffer.size());
+
+			int[] next = new int[producers];
+			for (int i = 0; i < producers * elements; i++) {
+				String element = buffer.poll();
+				int producer = element.charAt("producer".length()) - '0';
+				// order is kept per producer
+				assertEquals("producer" + producer + "-" + next[producer]++, element);
+				buffer.commit();
+			}
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	@Test
+	public void test_segmented_storage() throws IOException, InterruptedException {
+		PersistentObjectQueue.Builder<String> builder = PersistentObjectQueue.builder()
+			.withStorageMode(StorageMode.SEGMENTED)
+			.withSegmentSize(64);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			values.add("value" + i);
+		try (PollableObjectQueue<String> buffer = createQueue(true, builder)) {
+			buffer.offer(values);
+			for (int i = 0; i < 50; i++) {
+				assertEquals("value" + i, buffer.poll());
+				buffer.commit();
+			}
+		}
+
+		try (PollableObjectQueue<String> buffer = createQueue(false, builder)) {
+			assertEquals(50, buffer.size());
+			for (int i = 50; i < 100; i++) {
+				assertEquals("value" + i, buffer.poll());
+				buffer.commit();
+			}
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	@Test
+	public void test_checksum_recovery() throws IOException, InterruptedException {
+		PersistentObjectQueue.Builder<String> builder = PersistentObjectQueue.builder().withChecksum(true);
+		try (PollableObjectQueue<String> buffer = createQueue(true, builder)) {
+			buffer.offer(Arrays.asList("value1", "value2", "value3"));
+		}
+		corrupt(new File("target/test/ring-buffers/object-buffer.dat"), "value2");
+
+		try (PollableObjectQueue<String> buffer = createQueue(false, builder.withRecovery(true))) {
+			// torn tail is dropped
+			assertEquals(1, buffer.size());
+			assertEquals("value1", buffer.poll());
+			buffer.commit();
+			assertEquals(0, buffer.size());
+			buffer.offer("value4");
+			assertEquals("value4", buffer.poll());
+			buffer.commit();
+		}
+	}
+
+	@Test
+	public void test_corrupted_record_skipped() throws IOException, InterruptedException {
+		PersistentObjectQueue.Builder<String> builder = PersistentObjectQueue.builder().withChecksum(true);
+		try (PollableObjectQueue<String> buffer = createQueue(true, builder)) {
+			buffer.offer(Arrays.asList("value1", "value2", "value3", "value4"));
+		}
+		corrupt(new File("target/test/ring-buffers/object-buffer.dat"), "value2");
+
+		try (PollableObjectQueue<String> buffer = createQueue(false, builder)) {
+			assertEquals("value1", buffer.poll());
+			buffer.commit();
+			try {
+				buffer.poll();
+				fail("corrupted element polled");
+			} catch (IOException e) {
+				// expected
+			}
+			// the corrupted record is dropped
+			assertEquals(2, buffer.size());
+			assertEquals("value3", buffer.poll());
+			buffer.commit();
+			assertEquals(1, buffer.size());
+		}
+
+		// the head is on a record boundary
+		try (PollableObjectQueue<String> buffer = createQueue(false, builder)) {
+			assertEquals(1, buffer.size());
+			assertEquals("value4", buffer.poll());
+			buffer.commit();
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	private static void corrupt(File file, String value) throws IOException {
+		byte[] pattern = value.getBytes(StandardCharsets.UTF_8);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			byte[] content = new byte[(int) raf.length()];
+			raf.readFully(content);
+			for (int i = 0; i <= content.length - pattern.length; i++) {
+				if (Arrays.equals(pattern, Arrays.copyOfRange(content, i, i + pattern.length))) {
+					raf.seek(i);
+					raf.write(pattern[0] + 1);
+					return;
+				}
+			}
+		}
+		throw new IOException(value + " not found in " + file);
+	}
+
+	@Test
+	public void test_write_behind() throws Exception {
+		try (PersistentObjectQueue<String> buffer = createQueue(true,
+				PersistentObjectQueue.builder().withWriteBehind(1024))) {
+			buffer.offer(Arrays.asList("value1", "value2"));
+			buffer.offer("value3");
+			buffer.awaitWritten().get();
+			assertEquals(3, buffer.size());
+			assertEquals("value1", buffer.poll());
+			buffer.commit();
+			assertEquals(2, buffer.size());
+		}
+	}
+
+	@Test
+	public void test_transfer_to() throws Exception {
+		for (StorageMode storageMode : Arrays.asList(StorageMode.CHANNEL, StorageMode.MAPPED)) {
+			File targetFile = new File("target/test/ring-buffers/object-buffer-target.dat");
+			targetFile.delete();
+			try (PersistentObjectQueue<String> source = createQueue(true,
+					PersistentObjectQueue.builder().withLimit(64).withChecksum(true));
+					PersistentObjectQueue<String> target = PersistentObjectQueue.builder()
+						.withFile(targetFile)
+						.withLimit(64)
+						.withStorageMode(storageMode)
+						.build()) {
+				// records wrap in both buffers
+				source.offer(Arrays.asList("value0", "value0", "value0"));
+				for (int i = 0; i < 3; i++) {
+					source.poll();
+					source.commit();
+				}
+				target.offer(Arrays.asList("other", "other"));
+				target.poll();
+				target.commit();
+
+				source.offer(Arrays.asList("value1", "value2", "value3", "value4"));
+				assertEquals("value1", source.poll());
+				source.transferTo(target, 3);
+
+				assertEquals(1, source.size());
+				assertEquals("value4", source.poll());
+				assertEquals(4, target.size());
+				for (String expected : Arrays.asList("other", "value1", "value2", "value3")) {
+					assertEquals(expected, target.poll());
+					target.commit();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_timed_poll() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (PollableObjectQueue<String> buffer = newQueue()) {
+			assertNull(buffer.tryPoll());
+			assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+
+			Future<?> offer = executor.submit(() -> {
+				Thread.sleep(50);
+				buffer.offer("value1");
+				return null;
+			});
+			assertEquals("value1", buffer.poll(5, TimeUnit.SECONDS));
+			offer.get();
+			// not committed
+			assertEquals("value1", buffer.tryPoll());
+			buffer.commit();
+			assertNull(buffer.tryPoll());
+
+			Future<?> interrupt = executor.submit(() -> {
+				Thread.sleep(50);
+				buffer.interrupt();
+				return null;
+			});
+			try {
+				buffer.poll(5, TimeUnit.SECONDS);
+				fail("not interrupted");
+			} catch (InterruptedException e) {
+				// expected
+			}
+			interrupt.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void test_batch_poll() throws IOException, InterruptedException {
+		try (PollableObjectQueue<String> buffer = newQueue()) {
+			buffer.offer(Arrays.asList("value1", "value2", "value3"));
+			assertEquals(Arrays.asList("value1", "value2"), buffer.poll(2));
+			// not committed
+			assertEquals(Arrays.asList("value1", "value2"), buffer.poll(3));
+			assertEquals("value1", buffer.poll());
+			assertEquals(3, buffer.size());
+
+			buffer.commit();
+			assertEquals(1, buffer.size());
+			// only the available elements
+			assertEquals(Arrays.asList("value3"), buffer.poll(10));
+			buffer.commit();
+			assertEquals(0, buffer.size());
+			assertNull(buffer.tryPoll());
+		}
+
+		try (PollableObjectQueue<String> buffer = loadQueue()) {
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	@Test
+	public void test_ack_window() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (PollableObjectQueue<String> buffer = createQueue(true, PersistentObjectQueue.builder().withAckWindow(2))) {
+			buffer.offer(Arrays.asList("value1", "value2", "value3", "value4"));
+			PolledElement<String> first = buffer.pollElement();
+			PolledElement<String> second = buffer.pollElement();
+			assertEquals("value1", first.element());
+			assertEquals("value2", second.element());
+
+			// the head does not move over the uncommitted first element
+			second.commit();
+			assertEquals(4, buffer.size());
+
+			// window is full until first is committed
+			Future<PolledElement<String>> third = executor.submit(buffer::pollElement);
+			Thread.sleep(50);
+			assertFalse(third.isDone());
+			first.commit();
+			assertEquals("value3", third.get(5, TimeUnit.SECONDS).element());
+			assertEquals(2, buffer.size());
+			// already removed
+			second.commit();
+			assertEquals(2, buffer.size());
+		} finally {
+			executor.shutdown();
+		}
+
+		try (PollableObjectQueue<String> buffer = loadQueue()) {
+			assertEquals(2, buffer.size());
+			// uncommitted third is polled again
+			assertEquals("value3", buffer.pollElement().element());
+		}
+	}
+
+	@Test
+	public void test_concurrent_consumers() throws Exception {
+		int consumers = 4;
+		int elements = 2_000;
+		try (PollableObjectQueue<String> buffer = createQueue(true, PersistentObjectQueue.builder().withAckWindow(16))) {
+			List<String> offered = new ArrayList<>(elements);
+			for (int i = 0; i < elements; i++)
+				offered.add("value" + i);
+			buffer.offer(offered);
+
+			ExecutorService executor = Executors.newFixedThreadPool(consumers);
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int c = 0; c < consumers; c++) {
+				futures.add(executor.submit(() -> {
+					List<String> polled = new ArrayList<>();
+					for (int i = 0; i < elements / consumers; i++) {
+						PolledElement<String> element = buffer.pollElement();
+						polled.add(element.element());
+						element.commit();
+					}
+					return polled;
+				}));
+			}
+			Set<String> consumed = new HashSet<>();
+			for (Future<List<String>> future : futures)
+				consumed.addAll(future.get(10, TimeUnit.SECONDS));
+			executor.shutdown();
+
+			assertEquals(new HashSet<>(offered), consumed);
+			assertEquals(0, buffer.size());
+			assertNull(buffer.tryPoll());
+		}
+	}
+
+	@Test
+	public void test_mixed_consumers() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (PollableObjectQueue<String> buffer = newQueue()) {
+			buffer.offer(Arrays.asList("value0", "value1", "value2", "value3"));
+			ExecutorService consumer = Executors.newSingleThreadExecutor();
+			try {
+				PolledElement<String> first = buffer.pollElement();
+				assertEquals("value0", first.element());
+
+				// only the available elements, the in flight one is not polled again
+				assertEquals(Arrays.asList("value1", "value2", "value3"),
+						consumer.submit(() -> buffer.poll(10)).get(5, TimeUnit.SECONDS));
+				// polled elements are shared by the poll callers
+				assertEquals("value1", buffer.poll());
+				assertEquals("value1", buffer.tryPoll());
+
+				// committed from another thread, but not the element in flight
+				buffer.commit();
+				assertEquals(4, buffer.size());
+				assertNull(consumer.submit(() -> buffer.tryPoll()).get(5, TimeUnit.SECONDS));
+				first.commit();
+				assertEquals(0, buffer.size());
+			} finally {
+				consumer.shutdown();
+			}
+
+			int elements = 2_000;
+			List<String> offered = new ArrayList<>(elements);
+			for (int i = 0; i < elements; i++)
+				offered.add("element" + i);
+			buffer.offer(offered);
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int c = 0; c < 3; c++) {
+				futures.add(executor.submit(() -> {
+					List<String> polled = new ArrayList<>();
+					for (int i = 0; i < elements / 4; i++) {
+						PolledElement<String> element = buffer.pollElement();
+						polled.add(element.element());
+						element.commit();
+					}
+					return polled;
+				}));
+			}
+			futures.add(executor.submit(() -> {
+				List<String> polled = new ArrayList<>();
+				while (polled.size() < elements / 4) {
+					String element = buffer.poll();
+					polled.add(element);
+					buffer.commit();
+				}
+				return polled;
+			}));
+
+			List<String> consumed = new ArrayList<>();
+			for (Future<List<String>> future : futures)
+				consumed.addAll(future.get(10, TimeUnit.SECONDS));
+			assertEquals(elements, consumed.size());
+			assertEquals(new HashSet<>(offered), new HashSet<>(consumed));
+			assertEquals(0, buffer.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void test_offset_index() throws IOException, InterruptedException {
+		try (PollableObjectQueue<String> buffer = createQueue(true, PersistentObjectQueue.builder().withOffsetIndex(10))) {
+			List<String> offered = new ArrayList<>();
+			for (int i = 0; i < 100; i++)
+				offered.add("value" + i);
+			buffer.offer(offered);
+
+			try (QueueCursor<String> cursor = buffer.cursor(35)) {
+				assertEquals("value35", cursor.next());
+				assertEquals(10, cursor.skip(10));
+				assertEquals("value46", cursor.next());
+				assertEquals(53, cursor.skip(100));
+				assertFalse(cursor.hasNext());
+			}
+
+			// indexed entries follow the head
+			assertEquals(12, buffer.poll(12).size());
+			buffer.commit();
+			try (QueueCursor<String> cursor = buffer.cursor(30)) {
+				assertEquals("value42", cursor.next());
+				assertEquals("value43", cursor.next());
+			}
+			try (QueueCursor<String> cursor = buffer.cursor(3)) {
+				assertEquals("value15", cursor.next());
+			}
+
+			buffer.clear();
+			assertEquals(0, buffer.size());
+			buffer.offer(Arrays.asList("value100", "value101"));
+			try (QueueCursor<String> cursor = buffer.cursor(1)) {
+				assertEquals("value101", cursor.next());
+			}
+		}
+	}
+
 	@Test
 	public void test_iterator() throws IOException {
 		try (PollableObjectQueue<String> buffer = newQueue()) {
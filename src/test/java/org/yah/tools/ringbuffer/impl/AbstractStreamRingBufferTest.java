@@ -3,12 +3,19 @@ package org.yah.tools.ringbuffer.impl;
 import static java.util.Arrays.copyOfRange;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -21,6 +28,7 @@ import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferConcurrentModificationException;
 
@@ -55,7 +63,7 @@ public abstract class AbstractStreamRingBufferTest<R extends AbstractStreamRingB
 		assertEquals(CAPACITY / 2, ringBuffer.size());
 		assertEquals(CAPACITY, ringBuffer.capacity());
 
-		data = data(CAPACITY - ringBuffer.size());
+		data = data(CAPACITY - (int) ringBuffer.size());
 		write(data);
 		assertEquals(CAPACITY, ringBuffer.size());
 		assertEquals(CAPACITY, ringBuffer.capacity());
@@ -76,7 +84,7 @@ public abstract class AbstractStreamRingBufferTest<R extends AbstractStreamRingB
 		assertArrayEquals(data, copyOfRange(actual, 0, CAPACITY / 2));
 
 		// remove half of the buffer content
-		int removed = ringBuffer.remove(CAPACITY / 4);
+		long removed = ringBuffer.remove(CAPACITY / 4);
 		assertEquals(CAPACITY / 4, removed);
 		int remaining = CAPACITY / 4;
 		assertEquals(remaining, ringBuffer.size());
@@ -84,7 +92,7 @@ public abstract class AbstractStreamRingBufferTest<R extends AbstractStreamRingB
 		// read the remaining of the buffer
 		read = read(actual);
 		assertEquals(remaining, read);
-		assertArrayEquals(copyOfRange(data, removed, data.length),
+		assertArrayEquals(copyOfRange(data, (int) removed, data.length),
 				copyOfRange(actual, 0, remaining));
 
 		removed = ringBuffer.remove(CAPACITY);
@@ -229,6 +237,91 @@ public abstract class AbstractStreamRingBufferTest<R extends AbstractStreamRingB
 		ringBuffer.close();
 	}
 
+	@Test
+	public void test_channels() throws IOException {
+		write(data(CAPACITY));
+		ringBuffer.remove(CAPACITY / 2);
+
+		// wrapped write from a direct buffer
+		ByteBuffer source = ByteBuffer.allocateDirect(CAPACITY / 2);
+		source.put(data(CAPACITY / 2, CAPACITY));
+		source.flip();
+		try (WritableByteChannel channel = ringBuffer.writeChannel()) {
+			assertEquals(CAPACITY / 2, channel.write(source));
+		}
+		assertEquals(CAPACITY, ringBuffer.size());
+
+		ByteBuffer target = ByteBuffer.allocateDirect(CAPACITY);
+		try (ReadableByteChannel channel = ringBuffer.readChannel()) {
+			while (target.hasRemaining())
+				channel.read(target);
+		}
+		target.flip();
+		byte[] actuals = new byte[CAPACITY];
+		target.get(actuals);
+		assertArrayEquals(data(CAPACITY, CAPACITY / 2), actuals);
+	}
+
+	@Test
+	public void test_vectored_channels() throws IOException {
+		assumeTrue(ringBuffer.concurrencyMode() != ConcurrencyMode.MPSC);
+		write(data(3 * CAPACITY / 4));
+		ringBuffer.remove(CAPACITY / 2);
+
+		// gathering write across the wrap point, splitting the second source
+		ByteBuffer direct = ByteBuffer.allocateDirect(CAPACITY / 2);
+		direct.put(data(CAPACITY / 2, 3 * CAPACITY / 4 + 2));
+		direct.flip();
+		ByteBuffer[] sources = { ByteBuffer.wrap(data(2, 3 * CAPACITY / 4)), direct,
+				ByteBuffer.wrap(data(2, 5 * CAPACITY / 4 + 2)) };
+		try (RingBufferOutputStream os = ringBuffer.createWriter()) {
+			assertEquals(3 * CAPACITY / 4, os.write(sources));
+		}
+		assertEquals(CAPACITY, ringBuffer.size());
+
+		ByteBuffer[] targets = { ByteBuffer.allocate(CAPACITY / 2 - 1), ByteBuffer.allocateDirect(3),
+				ByteBuffer.allocate(CAPACITY / 2 - 2) };
+		try (RingBufferInputStream is = ringBuffer.createReader()) {
+			assertEquals(CAPACITY, is.read(targets));
+		}
+		ByteBuffer actuals = ByteBuffer.allocate(CAPACITY);
+		for (ByteBuffer target : targets) {
+			target.flip();
+			actuals.put(target);
+		}
+		assertArrayEquals(data(CAPACITY, CAPACITY / 2), actuals.array());
+	}
+
+	@Test
+	public void test_transfer_to() throws IOException {
+		write(data(CAPACITY));
+		ringBuffer.remove(CAPACITY / 2);
+		write(data(CAPACITY / 4, CAPACITY));
+
+		File file = new File("target/test/transfer-target.dat");
+		file.getParentFile().mkdirs();
+		try (FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// wrapped content, limited by size
+			assertEquals(3 * CAPACITY / 4, ringBuffer.transferTo(target, Long.MAX_VALUE));
+			assertEquals(3 * CAPACITY / 4, ringBuffer.size());
+
+			// limited by max bytes, through the reader
+			try (RingBufferInputStream is = ringBuffer.createReader()) {
+				is.skip(CAPACITY / 4);
+				assertEquals(CAPACITY / 4 + 1, is.transferTo(target, CAPACITY / 4 + 1));
+				assertEquals(CAPACITY / 4 - 1, is.available());
+			}
+
+			ByteBuffer actuals = ByteBuffer.allocate(CAPACITY + 1);
+			target.read(actuals, 0);
+			byte[] expected = new byte[CAPACITY + 1];
+			System.arraycopy(data(3 * CAPACITY / 4, CAPACITY / 2), 0, expected, 0, 3 * CAPACITY / 4);
+			System.arraycopy(data(CAPACITY / 4 + 1, 3 * CAPACITY / 4), 0, expected, 3 * CAPACITY / 4, CAPACITY / 4 + 1);
+			assertArrayEquals(expected, actuals.array());
+		}
+	}
+
 	@Test(expected = RingBufferConcurrentModificationException.class)
 	public void test_concurrent_remove() throws IOException {
 		byte[] data = data(CAPACITY);
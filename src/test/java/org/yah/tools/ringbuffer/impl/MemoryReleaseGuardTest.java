@@ -0,0 +1,68 @@
+package org.yah.tools.ringbuffer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+
+public class MemoryReleaseGuardTest {
+
+	private final AtomicInteger freed = new AtomicInteger();
+
+	private final MemoryReleaseGuard guard = new MemoryReleaseGuard(freed::incrementAndGet);
+
+	@Test
+	public void test_release_unused() {
+		guard.release();
+		assertEquals(1, freed.get());
+		guard.release();
+		assertEquals(1, freed.get());
+		assertFalse(guard.tryEnter());
+	}
+
+	@Test
+	public void test_release_in_use() throws RingBufferClosedException {
+		guard.enter();
+		guard.enter();
+		guard.release();
+		// operations in progress
+		assertEquals(0, freed.get());
+		assertFalse(guard.tryEnter());
+
+		guard.exit();
+		assertEquals(0, freed.get());
+		guard.exit();
+		assertEquals(1, freed.get());
+	}
+
+	@Test(expected = RingBufferClosedException.class)
+	public void test_enter_released() throws RingBufferClosedException {
+		assertTrue(guard.tryEnter());
+		guard.exit();
+		guard.release();
+		guard.enter();
+	}
+
+	@Test(timeout = 5000)
+	public void test_await_freed() throws Exception {
+		guard.enter();
+		guard.release();
+		Thread exiting = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			guard.exit();
+		});
+		exiting.start();
+		guard.awaitFreed();
+		assertEquals(1, freed.get());
+		exiting.join();
+	}
+
+}
@@ -0,0 +1,186 @@
+package org.yah.tools.ringbuffer.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.array.ArrayRingBuffer.ArrayLinearBuffer;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+
+/**
+ * A linear buffer replaced by a capacity change is released once no read uses
+ * it: the reads starting afterward must be done again from the new one.
+ */
+public class ReplacedLinearBufferTest {
+
+	private static final int CAPACITY = 16;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void test_read_released() throws IOException {
+		ReleasingRingBuffer ringBuffer = new ReleasingRingBuffer();
+		byte[] data = { 1, 2, 3, 4, 5, 6, 7, 8 };
+		write(ringBuffer, data);
+
+		// the reader snapshot is taken, grow and release the buffer before reading
+		GuardedLinearBuffer replaced = (GuardedLinearBuffer) ringBuffer.linearBuffer();
+		replaced.beforeRead = () -> grow(ringBuffer);
+		try (InputStream is = ringBuffer.reader()) {
+			byte[] actual = new byte[data.length];
+			assertEquals(data.length, is.read(actual));
+			assertArrayEquals(data, actual);
+		}
+		assertEquals(2 * CAPACITY, ringBuffer.capacity());
+		assertFalse(replaced.guard.tryEnter());
+	}
+
+	@Test
+	public void test_closed() throws IOException {
+		ReleasingRingBuffer ringBuffer = new ReleasingRingBuffer();
+		write(ringBuffer, new byte[CAPACITY / 2]);
+		try (InputStream is = ringBuffer.reader()) {
+			// released without replacement: the read fails
+			((GuardedLinearBuffer) ringBuffer.linearBuffer()).guard.release();
+			is.read(new byte[CAPACITY / 2]);
+			throw new AssertionError("read from a released buffer");
+		} catch (RingBufferClosedException e) {
+			// expected
+		}
+	}
+
+	private void grow(ReleasingRingBuffer ringBuffer) {
+		try {
+			executor.submit(() -> {
+				write(ringBuffer, new byte[CAPACITY]);
+				return null;
+			}).get(5, TimeUnit.SECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void write(AbstractStreamRingBuffer ringBuffer, byte[] data) throws IOException {
+		try (OutputStream os = ringBuffer.writer()) {
+			os.write(data);
+		}
+	}
+
+	/**
+	 * Release its replaced linear buffers, as the off heap and mapped ones are.
+	 */
+	private static final class ReleasingRingBuffer extends AbstractStreamRingBuffer {
+
+		private ReleasingRingBuffer() throws IOException {
+			super(4 * CAPACITY, 0, ConcurrencyMode.LOCKING, WaitStrategy.BLOCKING);
+			restore(new RingBufferState(CAPACITY), allocate(CAPACITY));
+		}
+
+		@Override
+		protected LinearBuffer allocate(long capacity) {
+			return new GuardedLinearBuffer((int) capacity);
+		}
+
+		@Override
+		protected void releaseReplaced(LinearBuffer replaced) {
+			((GuardedLinearBuffer) replaced).guard.release();
+		}
+	}
+
+	private static final class GuardedLinearBuffer implements LinearBuffer {
+
+		private final ArrayLinearBuffer delegate;
+
+		private final MemoryReleaseGuard guard = new MemoryReleaseGuard(() -> {});
+
+		/**
+		 * run once before the next read
+		 */
+		private volatile Runnable beforeRead;
+
+		private GuardedLinearBuffer(int capacity) {
+			this.delegate = new ArrayLinearBuffer(capacity);
+		}
+
+		@Override
+		public void read(long position, byte[] target, int offset, int length) throws IOException {
+			runBeforeRead();
+			guard.enter();
+			try {
+				delegate.read(position, target, offset, length);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void read(long position, ByteBuffer target) throws IOException {
+			runBeforeRead();
+			guard.enter();
+			try {
+				delegate.read(position, target);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void write(long position, byte[] source, int offset, int length) throws IOException {
+			guard.enter();
+			try {
+				delegate.write(position, source, offset, length);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void write(long position, ByteBuffer source) throws IOException {
+			guard.enter();
+			try {
+				delegate.write(position, source);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		@Override
+		public void copyTo(LinearBuffer target, long position, long targetPosition, long length)
+				throws IOException {
+			guard.enter();
+			try {
+				ByteBuffer source = ByteBuffer.allocate((int) length);
+				delegate.read(position, source);
+				source.flip();
+				target.write(targetPosition, source);
+			} finally {
+				guard.exit();
+			}
+		}
+
+		private void runBeforeRead() {
+			Runnable runnable = beforeRead;
+			beforeRead = null;
+			if (runnable != null)
+				runnable.run();
+		}
+	}
+
+}
@@ -4,10 +4,19 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 import org.yah.tools.ringbuffer.impl.array.ArrayRingBufferTest;
+import org.yah.tools.ringbuffer.impl.array.MpscArrayRingBufferTest;
+import org.yah.tools.ringbuffer.impl.array.SpinArrayRingBufferTest;
+import org.yah.tools.ringbuffer.impl.array.SpscArrayRingBufferTest;
+import org.yah.tools.ringbuffer.impl.direct.DirectRingBufferTest;
 import org.yah.tools.ringbuffer.impl.file.FileRingBufferTest;
+import org.yah.tools.ringbuffer.impl.file.MappedFileRingBufferTest;
+import org.yah.tools.ringbuffer.impl.file.SpscFileRingBufferTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ ArrayRingBufferTest.class, FileRingBufferTest.class })
+@SuiteClasses({ ArrayRingBufferTest.class, SpscArrayRingBufferTest.class, MpscArrayRingBufferTest.class,
+		SpinArrayRingBufferTest.class,
+		DirectRingBufferTest.class,
+		FileRingBufferTest.class, MappedFileRingBufferTest.class, SpscFileRingBufferTest.class })
 public class RingBufferTests {
 
 }
@@ -0,0 +1,177 @@
+package org.yah.tools.ringbuffer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.WaitStrategy;
+import org.yah.tools.ringbuffer.impl.array.ArrayRingBuffer;
+
+/**
+ * Check that the waiting readers and writers are woken up only by the state
+ * changes they wait for, and never miss one.
+ */
+public class RingBufferWaitersTest {
+
+	private static final int CAPACITY = 16;
+
+	/**
+	 * time given to a wrongly woken up waiter to check the state again
+	 */
+	private static final long WAKE_UP_DELAY = 100;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final AtomicReference<Thread> waiterThread = new AtomicReference<>();
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void test_remove_does_not_wake_readers() throws Exception {
+		CountingRingBuffer ringBuffer = new CountingRingBuffer(WaitStrategy.BLOCKING);
+		write(ringBuffer, CAPACITY / 2);
+
+		AtomicInteger checks = new AtomicInteger();
+		Future<RingBufferState> reader = executor.submit(() -> {
+			waiterThread.set(Thread.currentThread());
+			return ringBuffer.awaitInputState(s -> {
+				checks.incrementAndGet();
+				return s.size() > CAPACITY / 2;
+			}, 0, TimeUnit.SECONDS);
+		});
+		awaitParked(ringBuffer);
+
+		int parkedChecks = checks.get();
+		ringBuffer.remove(CAPACITY / 4);
+		Thread.sleep(WAKE_UP_DELAY);
+		assertEquals(parkedChecks, checks.get());
+		assertFalse(reader.isDone());
+
+		write(ringBuffer, CAPACITY / 2);
+		RingBufferState state = reader.get(5, TimeUnit.SECONDS);
+		assertNotNull(state);
+		assertEquals(CAPACITY / 4 + CAPACITY / 2, state.size());
+	}
+
+	@Test
+	public void test_writer_woken_when_space_available() throws Exception {
+		CountingRingBuffer ringBuffer = new CountingRingBuffer(WaitStrategy.BLOCKING);
+		write(ringBuffer, CAPACITY);
+
+		Future<?> writer = executor.submit(() -> {
+			waiterThread.set(Thread.currentThread());
+			write(ringBuffer, CAPACITY / 2);
+			return null;
+		});
+		awaitParked(ringBuffer);
+
+		// not enough space for the waiting writer
+		int parkedChecks = ringBuffer.stateReads.get();
+		ringBuffer.remove(CAPACITY / 4);
+		Thread.sleep(WAKE_UP_DELAY);
+		assertEquals(parkedChecks, ringBuffer.stateReads.get());
+		assertFalse(writer.isDone());
+
+		ringBuffer.remove(CAPACITY / 4);
+		writer.get(5, TimeUnit.SECONDS);
+		assertTrue(ringBuffer.stateReads.get() > parkedChecks);
+		assertEquals(CAPACITY, ringBuffer.size());
+	}
+
+	@Test(timeout = 60000)
+	public void test_no_lost_wake_up() throws Exception {
+		testNoLostWakeUp(WaitStrategy.BLOCKING);
+	}
+
+	@Test(timeout = 60000)
+	public void test_no_lost_wake_up_spinning() throws Exception {
+		testNoLostWakeUp(WaitStrategy.SPIN_PARK);
+	}
+
+	/**
+	 * Each round the writer fills the buffer and the reader empties it, both
+	 * waiting for the other: a wake-up lost while a waiter enqueues itself
+	 * blocks them forever.
+	 */
+	private void testNoLostWakeUp(WaitStrategy waitStrategy) throws Exception {
+		int rounds = 20_000;
+		CountingRingBuffer ringBuffer = new CountingRingBuffer(waitStrategy);
+		Future<?> writer = executor.submit(() -> {
+			byte[] data = new byte[CAPACITY];
+			try (OutputStream os = ringBuffer.writer()) {
+				for (int i = 0; i < rounds; i++) {
+					os.write(data);
+					os.flush();
+				}
+			}
+			return null;
+		});
+		Future<?> reader = executor.submit(() -> {
+			long removed = 0;
+			while (removed < (long) rounds * CAPACITY) {
+				RingBufferState state = ringBuffer.awaitInputState(s -> s.size() > 0, 0, TimeUnit.SECONDS);
+				removed += ringBuffer.remove(state.size());
+			}
+			return null;
+		});
+		writer.get(50, TimeUnit.SECONDS);
+		reader.get(5, TimeUnit.SECONDS);
+		assertEquals(0, ringBuffer.size());
+	}
+
+	private void awaitParked(AbstractStreamRingBuffer ringBuffer) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (System.nanoTime() - deadline < 0) {
+			Thread thread = waiterThread.get();
+			if (thread != null && LockSupport.getBlocker(thread) == ringBuffer)
+				return;
+			Thread.sleep(1);
+		}
+		fail("waiter not parked");
+	}
+
+	private static void write(AbstractStreamRingBuffer ringBuffer, int length) throws IOException {
+		try (OutputStream os = ringBuffer.writer()) {
+			os.write(new byte[length]);
+		}
+	}
+
+	/**
+	 * Count the state reads of the waiter thread, each wake-up reads the state
+	 * again.
+	 */
+	private final class CountingRingBuffer extends ArrayRingBuffer {
+
+		private final AtomicInteger stateReads = new AtomicInteger();
+
+		private CountingRingBuffer(WaitStrategy waitStrategy) throws IOException {
+			super(CAPACITY, CAPACITY, 0, ConcurrencyMode.LOCKING, waitStrategy);
+		}
+
+		@Override
+		public RingBufferState state() {
+			if (Thread.currentThread() == waiterThread.get())
+				stateReads.incrementAndGet();
+			return super.state();
+		}
+	}
+
+}
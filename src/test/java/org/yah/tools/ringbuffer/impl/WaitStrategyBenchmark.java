@@ -0,0 +1,92 @@
+package org.yah.tools.ringbuffer.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.WaitStrategy;
+import org.yah.tools.ringbuffer.impl.array.ArrayRingBuffer;
+
+/**
+ * Measure the latency between a write and its read by a waiting reader, for
+ * each {@link WaitStrategy}. Messages are spaced so that the reader always
+ * waits for the next one.
+ */
+public class WaitStrategyBenchmark {
+
+	private static final int MESSAGES = 20_000;
+
+	private static final int WARMUP = 5_000;
+
+	private static final long INTERVAL_NANOS = 20_000;
+
+	private long[] benchmark(WaitStrategy waitStrategy) throws IOException, InterruptedException {
+		long[] latencies = new long[MESSAGES];
+		try (ArrayRingBuffer ringBuffer = new ArrayRingBuffer(64 * 1024, 64 * 1024, 0, ConcurrencyMode.SPSC,
+				waitStrategy)) {
+			Thread reader = new Thread(() -> {
+				try (InputStream is = ringBuffer.reader()) {
+					for (int i = 0; i < WARMUP + MESSAGES; i++) {
+						long sent = readLong(is);
+						long latency = System.nanoTime() - sent;
+						ringBuffer.remove(Long.BYTES);
+						if (i >= WARMUP)
+							latencies[i - WARMUP] = latency;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			reader.start();
+
+			byte[] message = new byte[Long.BYTES];
+			for (int i = 0; i < WARMUP + MESSAGES; i++) {
+				long next = System.nanoTime() + INTERVAL_NANOS;
+				while (System.nanoTime() < next)
+					LockSupport.parkNanos(INTERVAL_NANOS / 4);
+				writeLong(System.nanoTime(), message);
+				try (OutputStream os = ringBuffer.writer()) {
+					os.write(message);
+				}
+			}
+			reader.join();
+		}
+		return latencies;
+	}
+
+	private static long readLong(InputStream is) throws IOException {
+		byte[] bytes = RingBufferUtils.readFully(is, Long.BYTES);
+		long res = 0;
+		for (byte b : bytes)
+			res = (res << 8) | (b & 0xFF);
+		return res;
+	}
+
+	private static void writeLong(long value, byte[] target) {
+		for (int i = Long.BYTES - 1; i >= 0; i--) {
+			target[i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	private static String format(WaitStrategy waitStrategy, long[] latencies) {
+		Arrays.sort(latencies);
+		return String.format("%-10s p50 %,8d ns | p99 %,8d ns | p99.9 %,9d ns | max %,10d ns", waitStrategy,
+				percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+				latencies[latencies.length - 1]);
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * sorted.length))];
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		WaitStrategyBenchmark benchmark = new WaitStrategyBenchmark();
+		for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+			System.out.println(format(waitStrategy, benchmark.benchmark(waitStrategy)));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.yah.tools.ringbuffer.impl.array;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+
+public class MpscArrayRingBufferTest extends ArrayRingBufferTest {
+
+	@Override
+	protected ArrayRingBuffer createRingBuffer(int capacity) throws IOException {
+		return new ArrayRingBuffer(capacity, LIMIT, 0, ConcurrencyMode.MPSC);
+	}
+
+	@Override
+	protected ArrayRingBuffer createFloodBuffer() throws IOException {
+		return new ArrayRingBuffer(CAPACITY, 1024 * 1024, Long.MAX_VALUE, ConcurrencyMode.MPSC);
+	}
+
+	@Test
+	public void test_concurrent_producers() throws Exception {
+		closeBuffer();
+		ringBuffer = new ArrayRingBuffer(CAPACITY, 4 * 1024, Long.MAX_VALUE, ConcurrencyMode.MPSC);
+
+		int producers = 4;
+		int messages = 5_000;
+		int messageSize = 24;
+		ExecutorService executor = Executors.newFixedThreadPool(producers);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			byte producer = (byte) p;
+			futures.add(executor.submit(() -> {
+				byte[] message = new byte[messageSize];
+				// each writer keeps its messages contiguous
+				try (OutputStream os = ringBuffer.writer()) {
+					for (int i = 0; i < messages; i++) {
+						for (int j = 0; j < messageSize; j++)
+							message[j] = producer;
+						os.write(message);
+						os.flush();
+					}
+				}
+				return null;
+			}));
+		}
+
+		int[] counts = new int[producers];
+		try (InputStream is = createReader()) {
+			for (int i = 0; i < producers * messages; i++) {
+				byte[] message = RingBufferUtils.readFully(is, messageSize);
+				for (int j = 1; j < messageSize; j++)
+					assertEquals(message[0], message[j]);
+				counts[message[0]]++;
+				ringBuffer.remove(messageSize);
+			}
+		}
+		for (Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+
+		for (int p = 0; p < producers; p++)
+			assertEquals(messages, counts[p]);
+		assertEquals(0, ringBuffer.size());
+	}
+
+}
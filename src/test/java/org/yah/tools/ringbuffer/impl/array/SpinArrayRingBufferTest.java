@@ -0,0 +1,21 @@
+package org.yah.tools.ringbuffer.impl.array;
+
+import java.io.IOException;
+
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.WaitStrategy;
+
+public class SpinArrayRingBufferTest extends ArrayRingBufferTest {
+
+	@Override
+	protected ArrayRingBuffer createRingBuffer(int capacity) throws IOException {
+		return new ArrayRingBuffer(capacity, LIMIT, 0, ConcurrencyMode.LOCKING, WaitStrategy.SPIN_PARK);
+	}
+
+	@Override
+	protected ArrayRingBuffer createFloodBuffer() throws IOException {
+		return new ArrayRingBuffer(CAPACITY, 1024 * 1024, Long.MAX_VALUE, ConcurrencyMode.LOCKING,
+				WaitStrategy.SPIN_PARK);
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.yah.tools.ringbuffer.impl.array;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+import org.yah.tools.ringbuffer.impl.RingBufferInputStream;
+import org.yah.tools.ringbuffer.impl.RingBufferState;
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+
+public class SpscArrayRingBufferTest extends ArrayRingBufferTest {
+
+	@Override
+	protected ArrayRingBuffer createRingBuffer(int capacity) throws IOException {
+		return new ArrayRingBuffer(capacity, LIMIT, 0, ConcurrencyMode.SPSC);
+	}
+
+	@Override
+	protected ArrayRingBuffer createFloodBuffer() throws IOException {
+		return new ArrayRingBuffer(CAPACITY, 1024 * 1024, Long.MAX_VALUE, ConcurrencyMode.SPSC);
+	}
+
+	/**
+	 * The writer moves the reader position on each capacity increase, while the
+	 * reader advances it without lock: none of the reader advances must be lost.
+	 */
+	@Test
+	public void test_grow_while_reading() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (int i = 0; i < 200; i++)
+				growWhileReading(executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Same as a capacity increase without moving data, as often as possible to
+	 * race with the reader advances.
+	 */
+	@Test
+	public void test_capacity_update_while_reading() throws Exception {
+		int count = 16 * 1024;
+		ringBuffer = new ArrayRingBuffer(count * Integer.BYTES, -1, 0, ConcurrencyMode.SPSC);
+		ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+		try (OutputStream os = ringBuffer.writer()) {
+			for (int i = 0; i < count; i++) {
+				value.putInt(0, i);
+				os.write(value.array());
+			}
+		}
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (RingBufferInputStream is = (RingBufferInputStream) ringBuffer.reader()) {
+			Future<?> reader = executor.submit(() -> {
+				for (int i = 0; i < count; i++) {
+					RingBufferUtils.readFully(is, value.array(), 0, Integer.BYTES);
+					assertEquals(i, value.getInt(0));
+				}
+				return null;
+			});
+			// never wrapped, the position is kept as is
+			RingBufferState state = ringBuffer.state();
+			while (!reader.isDone())
+				is.updateCapacity(state.capacity(), state);
+			reader.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void growWhileReading(ExecutorService executor) throws Exception {
+		int count = 8 * 1024;
+		ArrayRingBuffer buffer = createFloodBuffer();
+		Future<?> reader = executor.submit(() -> {
+			try (InputStream is = buffer.reader()) {
+				ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+				for (int i = 0; i < count; i++) {
+					// lock free read, advancing without the buffer monitor
+					RingBufferUtils.readFully(is, value.array(), 0, Integer.BYTES);
+					assertEquals(i, value.getInt(0));
+					buffer.remove(Integer.BYTES);
+				}
+			}
+			return null;
+		});
+
+		try (OutputStream os = buffer.writer()) {
+			ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+			for (int i = 0; i < count; i++) {
+				value.putInt(0, i);
+				// published one by one, so that the reader runs while growing
+				os.write(value.array());
+				os.flush();
+			}
+		}
+		reader.get(30, TimeUnit.SECONDS);
+		assertTrue(buffer.capacity() > CAPACITY);
+		assertEquals(0, buffer.size());
+		buffer.close();
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.yah.tools.ringbuffer.impl.direct;
+
+import static java.util.Arrays.copyOfRange;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBufferTest;
+import org.yah.tools.ringbuffer.impl.LinearBuffer;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+
+public class DirectRingBufferTest extends AbstractStreamRingBufferTest<DirectRingBuffer> {
+
+	protected static final int LIMIT = 64;
+
+	@Override
+	protected DirectRingBuffer createRingBuffer(int capacity) throws IOException {
+		return new DirectRingBuffer(capacity, LIMIT, 0);
+	}
+
+	@Override
+	protected DirectRingBuffer createFloodBuffer() throws IOException {
+		return new DirectRingBuffer(CAPACITY, 1024 * 1024, Long.MAX_VALUE);
+	}
+
+	@Override
+	protected void closeBuffer() throws IOException {
+		ringBuffer.close();
+	}
+
+	@Test
+	public void testEnsureCapacity_wrapped() throws IOException {
+		byte[] data = data(CAPACITY);
+
+		write(data);
+
+		ringBuffer.remove(CAPACITY / 2);
+
+		write(data);
+
+		assertTrue(ringBuffer.capacity() > CAPACITY);
+		assertEquals(CAPACITY + CAPACITY / 2, ringBuffer.size());
+
+		byte[] actual = new byte[CAPACITY];
+		try (InputStream is = createReader()) {
+			int read = is.read(actual, 0, CAPACITY / 2);
+			assertEquals(CAPACITY / 2, read);
+			assertArrayEquals(copyOfRange(data, CAPACITY / 2, CAPACITY), copyOfRange(actual, 0, CAPACITY / 2));
+
+			read = is.read(actual);
+			assertEquals(CAPACITY, read);
+			assertArrayEquals(data, actual);
+		}
+	}
+
+	@Test(expected = RingBufferClosedException.class)
+	public void test_closed() throws IOException {
+		write(data(CAPACITY));
+		InputStream is = createReader();
+		ringBuffer.close();
+		is.read(new byte[CAPACITY]);
+	}
+
+	@Test
+	public void test_replaced_buffers_released() throws IOException {
+		closeBuffer();
+		List<LinearBuffer> replaced = new ArrayList<>();
+		ringBuffer = new DirectRingBuffer(CAPACITY, 8 * CAPACITY, 0) {
+			@Override
+			protected void releaseReplaced(LinearBuffer linearBuffer) {
+				replaced.add(linearBuffer);
+				super.releaseReplaced(linearBuffer);
+			}
+		};
+		byte[] data = data(8 * CAPACITY);
+		try (InputStream is = createReader()) {
+			// grow 3 times, the reader keeps reading from the new buffers
+			int offset = 0;
+			for (int capacity = 2 * CAPACITY; capacity <= 8 * CAPACITY; capacity *= 2) {
+				write(data, offset, capacity - offset);
+				offset = capacity;
+				assertEquals(capacity, ringBuffer.capacity());
+			}
+			byte[] actual = new byte[data.length];
+			assertEquals(data.length, is.read(actual));
+			assertArrayEquals(data, actual);
+		}
+
+		assertEquals(3, replaced.size());
+		for (LinearBuffer linearBuffer : replaced) {
+			try {
+				linearBuffer.read(0, new byte[1], 0, 1);
+				throw new AssertionError("replaced buffer not released");
+			} catch (RingBufferClosedException e) {
+				// expected
+			}
+		}
+	}
+
+}
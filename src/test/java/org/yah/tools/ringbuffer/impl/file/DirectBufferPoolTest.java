@@ -0,0 +1,41 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class DirectBufferPoolTest {
+
+	private final DirectBufferPool pool = new DirectBufferPool(64);
+
+	@Test
+	public void test_reuse() {
+		ByteBuffer first = pool.acquire();
+		assertTrue(first.isDirect());
+		assertEquals(64, first.capacity());
+		first.put((byte) 1);
+		pool.release(first);
+
+		ByteBuffer second = pool.acquire();
+		assertSame(first, second);
+		assertEquals(0, second.position());
+		assertEquals(64, second.limit());
+
+		// in use, not shared
+		assertNotSame(second, pool.acquire());
+	}
+
+	@Test
+	public void test_closed() {
+		ByteBuffer first = pool.acquire();
+		pool.close();
+		pool.release(first);
+		assertNotSame(first, pool.acquire());
+	}
+
+}
@@ -8,10 +8,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
 import org.yah.tools.ringbuffer.impl.RingBufferUtils;
 import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.StorageMode;
 import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.SyncMode;
 
 public class FileRingBufferBenchmark {
@@ -24,7 +27,8 @@ public class FileRingBufferBenchmark {
 		return res;
 	}
 
-	private FileRingBuffer newEmptyRingBuffer(int capacity, int limit, int readerCache) throws IOException {
+	private FileRingBuffer newEmptyRingBuffer(int capacity, int limit, int readerCache, StorageMode storageMode,
+			ConcurrencyMode concurrencyMode, boolean preallocate) throws IOException {
 		File file = new File("target/test/ring-buffers/bench-buffer.dat");
 		if (file.exists())
 			file.delete();
@@ -32,6 +36,9 @@ public class FileRingBufferBenchmark {
 			.withLimit(limit)
 			.withDefaultReaderCache(readerCache)
 			.withSyncMode(SyncMode.NONE)
+			.withStorageMode(storageMode)
+			.withConcurrencyMode(concurrencyMode)
+			.withPreallocation(preallocate)
 			.build();
 	}
 
@@ -74,23 +81,27 @@ public class FileRingBufferBenchmark {
 		thread.start();
 
 		long timeToWrite = 0;
+		long[] writeLatencies = new long[messageCount];
 		int remaining = messageCount;
 		long benchStart = System.currentTimeMillis();
 
 		final MessageDigest writerDigest = MessageDigest.getInstance("SHA-1");
 		while (remaining > 0) {
-			long start = System.currentTimeMillis();
+			long start = System.nanoTime();
 			try (OutputStream os = ringBuffer.writer()) {
 				os.write(message);
 			}
+			long latency = System.nanoTime() - start;
+			writeLatencies[messageCount - remaining] = latency;
+			timeToWrite += latency;
 			writerDigest.update(message);
-			timeToWrite += System.currentTimeMillis() - start;
 			remaining--;
 		}
 
 		System.out.println(String.format("%,d messages (%,d bytes)", messageCount, messageCount * messageSize));
 		System.out.println();
-		System.out.println(formatThroughput("write", timeToWrite, totalSize));
+		System.out.println(formatThroughput("write", timeToWrite / 1_000_000, totalSize));
+		System.out.println(formatLatencies("write", writeLatencies));
 		closeLatch.await();
 
 		System.out.println(logBuilder.toString());
@@ -103,15 +114,31 @@ public class FileRingBufferBenchmark {
 		ringBuffer.close();
 	}
 
+	private String formatLatencies(String opname, long[] latencies) {
+		Arrays.sort(latencies);
+		return String.format("%5s latency p50 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns", opname,
+				latencies[latencies.length / 2], latencies[(int) (latencies.length * 0.99)],
+				latencies[(int) (latencies.length * 0.999)], latencies[latencies.length - 1]);
+	}
+
 	private String formatThroughput(String opname, long time, long size) {
-		return String.format("%5s time %,6d ms : %,d Kb/s", opname, time, size / time * 1000 / 1024);
+		return String.format("%5s time %,6d ms : %,d Kb/s", opname, time, size / Math.max(1, time) * 1000 / 1024);
 	}
 
 	public static void main(String[] args) throws IOException, InterruptedException, NoSuchAlgorithmException {
 		FileRingBufferBenchmark benchmark = new FileRingBufferBenchmark();
 		int capacity = 1024 * 1024;
-		try (FileRingBuffer buffer = benchmark.newEmptyRingBuffer(capacity, -1, 128 * 1024)) {
-			benchmark.benchmark(buffer, 1024 * 1024, 48);
+		for (StorageMode storageMode : StorageMode.values()) {
+			for (ConcurrencyMode concurrencyMode : ConcurrencyMode.values()) {
+				for (boolean preallocate : new boolean[] { false, true }) {
+					System.out.println("---- " + storageMode + " / " + concurrencyMode
+							+ (preallocate ? " / preallocated" : "") + " ----");
+					try (FileRingBuffer buffer = benchmark.newEmptyRingBuffer(capacity, capacity, 128 * 1024,
+							storageMode, concurrencyMode, preallocate)) {
+						benchmark.benchmark(buffer, 1024 * 1024, 48);
+					}
+				}
+			}
 		}
 	}
 }
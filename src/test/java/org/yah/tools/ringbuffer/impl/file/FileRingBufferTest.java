@@ -2,20 +2,31 @@ package org.yah.tools.ringbuffer.impl.file;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.yah.tools.ringbuffer.impl.AbstractStreamRingBufferTest;
 import org.yah.tools.ringbuffer.impl.RingBufferState;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferOverflowException;
 import org.yah.tools.ringbuffer.impl.file.FileRingBuffer;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.SyncMode;
 
 public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuffer> {
 
-	private File ringBufferFile = new File("target/test/ring-buffers/test-ring-buffer.dat");
+	protected File ringBufferFile = new File("target/test/ring-buffers/test-ring-buffer.dat");
 
 	@Override
 	public void setup() throws Exception {
@@ -27,7 +38,7 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 
 	@Override
 	protected FileRingBuffer createRingBuffer(int capacity) throws IOException {
-		return FileRingBuffer.builder(ringBufferFile)
+		return builder()
 			.withLimit(capacity)
 			.withDefaultReaderCache(0)
 			.withWriteBufferSize(0)
@@ -38,7 +49,7 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 	protected FileRingBuffer createFloodBuffer() throws IOException {
 		if (ringBufferFile.exists() && !ringBufferFile.delete())
 			throw new IllegalStateException("Unable to delete " + ringBufferFile);
-		return FileRingBuffer.builder(ringBufferFile)
+		return builder()
 			.withLimit(1024 * 1024)
 			.withDefaultReaderCache(4 * 1024)
 			.withWriteBufferSize(4 * 1024)
@@ -46,6 +57,18 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 			.build();
 	}
 
+	protected FileRingBuffer.Builder builder() {
+		return FileRingBuffer.builder(ringBufferFile);
+	}
+
+	/**
+	 * @return the expected file length when the file has been written up to
+	 *         dataLength and opened with capacity
+	 */
+	protected long expectedFileLength(int dataLength, int capacity) {
+		return ringBuffer.headerLength() + dataLength;
+	}
+
 	@Override
 	protected void closeBuffer() throws IOException {
 		ringBuffer.close();
@@ -53,7 +76,7 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 
 	private void reloadRingBuffer() throws IOException {
 		ringBuffer.close();
-		ringBuffer = FileRingBuffer.builder(ringBufferFile).withLimit(CAPACITY).build();
+		ringBuffer = builder().withLimit(CAPACITY).build();
 	}
 
 	@Test
@@ -91,7 +114,7 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 		write(data(CAPACITY / 2));
 
 		closeBuffer();
-		assertEquals(ringBuffer.headerLength() + CAPACITY, ringBufferFile.length());
+		assertEquals(expectedFileLength(CAPACITY, CAPACITY), ringBufferFile.length());
 
 		ringBuffer = createRingBuffer(CAPACITY * 2);
 		RingBufferState state = ringBuffer.state();
@@ -112,6 +135,74 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 		}
 	}
 
+	@Test
+	public void test_runtime_growth() throws IOException {
+		closeBuffer();
+		ringBuffer = builder().withLimit(CAPACITY)
+			.withMaxCapacity(4 * CAPACITY)
+			.withWriteTimeout(-1)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.build();
+		byte[] first = data(CAPACITY);
+		write(first);
+		ringBuffer.remove(CAPACITY / 2);
+		try (InputStream reader = createReader()) {
+			// wrapped, then grown while the reader is open
+			byte[] second = data(CAPACITY / 2);
+			write(second);
+			byte[] third = data(CAPACITY);
+			write(third);
+			assertEquals(2 * CAPACITY, ringBuffer.capacity());
+			assertEquals(2 * CAPACITY, ringBuffer.size());
+
+			byte[] expected = new byte[2 * CAPACITY];
+			System.arraycopy(first, CAPACITY / 2, expected, 0, CAPACITY / 2);
+			System.arraycopy(second, 0, expected, CAPACITY / 2, CAPACITY / 2);
+			System.arraycopy(third, 0, expected, CAPACITY, CAPACITY);
+			byte[] actual = new byte[expected.length];
+			int read = 0;
+			while (read < actual.length)
+				read += reader.read(actual, read, actual.length - read);
+			assertArrayEquals(expected, actual);
+
+			try {
+				write(data(2 * CAPACITY + 1));
+				throw new AssertionError("max capacity exceeded");
+			} catch (RingBufferOverflowException e) {
+				// expected
+			}
+
+			closeBuffer();
+			assertEquals(ringBuffer.headerLength() + 2 * CAPACITY, ringBufferFile.length());
+			ringBuffer = builder().withLimit(CAPACITY).withMaxCapacity(4 * CAPACITY).build();
+			assertEquals(2 * CAPACITY, ringBuffer.capacity());
+			actual = new byte[expected.length];
+			assertEquals(actual.length, read(actual));
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void test_preallocation() throws IOException {
+		closeBuffer();
+		assertTrue(ringBufferFile.delete());
+		ringBuffer = builder().withLimit(CAPACITY)
+			.withMaxCapacity(2 * CAPACITY)
+			.withPreallocation(true)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.build();
+		assertEquals(ringBuffer.headerLength() + CAPACITY, ringBufferFile.length());
+
+		byte[] data = data(2 * CAPACITY);
+		write(data);
+		assertEquals(ringBuffer.headerLength() + 2 * CAPACITY, ringBufferFile.length());
+		byte[] actual = new byte[data.length];
+		assertEquals(data.length, read(actual));
+		assertArrayEquals(data, actual);
+	}
+
 	@Test
 	public void test_shrink() throws IOException {
 		assertEquals(CAPACITY, ringBuffer.limit());
@@ -126,13 +217,13 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 		ringBuffer = createRingBuffer(CAPACITY / 2);
 		assertEquals(CAPACITY / 2, ringBuffer.capacity());
 		assertEquals(CAPACITY / 2, ringBuffer.limit());
-		assertEquals(ringBuffer.headerLength() + CAPACITY / 2, ringBufferFile.length());
+		assertEquals(expectedFileLength(CAPACITY / 2, CAPACITY / 2), ringBufferFile.length());
 
 		closeBuffer();
 		ringBuffer = createRingBuffer(CAPACITY);
 		assertEquals(CAPACITY, ringBuffer.capacity());
 		assertEquals(CAPACITY, ringBuffer.limit());
-		assertEquals(ringBuffer.headerLength() + CAPACITY / 2, ringBufferFile.length());
+		assertEquals(expectedFileLength(CAPACITY / 2, CAPACITY), ringBufferFile.length());
 
 		write(data(CAPACITY / 4));
 		ringBuffer.remove(CAPACITY / 2 + CAPACITY / 4);
@@ -155,6 +246,206 @@ public class FileRingBufferTest extends AbstractStreamRingBufferTest<FileRingBuf
 		assertArrayEquals(data(CAPACITY / 2), actuals);
 	}
 
+	@Test
+	public void test_compact() throws IOException {
+		write(data(CAPACITY));
+		closeBuffer();
+		// capacity kept since the file content does not fit in the new limit
+		ringBuffer = createRingBuffer(CAPACITY / 4);
+		assertEquals(CAPACITY, ringBuffer.capacity());
+
+		ringBuffer.remove(CAPACITY - 2);
+		// content is at the end of the file
+		assertFalse(ringBuffer.compact());
+		assertEquals(CAPACITY, ringBuffer.capacity());
+
+		// move the ring position to the start of the file
+		write(data(2, 10));
+		ringBuffer.remove(2);
+		assertEquals(0, ringBuffer.state().position().position());
+		try (InputStream is = createReader()) {
+			assertTrue(ringBuffer.compact());
+			assertEquals(CAPACITY / 4, ringBuffer.capacity());
+			assertEquals(expectedFileLength(CAPACITY / 4, CAPACITY / 4), ringBufferFile.length());
+
+			// reader position has been updated
+			byte[] actuals = new byte[2];
+			assertEquals(2, is.read(actuals));
+			assertArrayEquals(data(2, 10), actuals);
+		}
+
+		write(data(CAPACITY / 4 - 2, 20));
+		assertEquals(CAPACITY / 4, ringBuffer.size());
+		byte[] actuals = new byte[CAPACITY / 4];
+		assertEquals(CAPACITY / 4, read(actuals));
+		byte[] expecteds = new byte[CAPACITY / 4];
+		System.arraycopy(data(2, 10), 0, expecteds, 0, 2);
+		System.arraycopy(data(CAPACITY / 4 - 2, 20), 0, expecteds, 2, CAPACITY / 4 - 2);
+		assertArrayEquals(expecteds, actuals);
+	}
+
+	@Test
+	public void test_compact_with_writer() throws IOException {
+		write(data(CAPACITY));
+		closeBuffer();
+		ringBuffer = createRingBuffer(CAPACITY / 4);
+		ringBuffer.remove(CAPACITY);
+		write(data(CAPACITY / 4));
+		ringBuffer.remove(CAPACITY / 4);
+		assertEquals(CAPACITY / 4, ringBuffer.state().position().position());
+		// writer in use
+		OutputStream os = ringBuffer.writer();
+		try {
+			assertFalse(ringBuffer.compact());
+		} finally {
+			os.close();
+		}
+		assertTrue(ringBuffer.compact());
+		assertEquals(CAPACITY / 2, ringBuffer.capacity());
+	}
+
+	@Test
+	public void test_automatic_compaction() throws IOException {
+		write(data(CAPACITY));
+		closeBuffer();
+		ringBuffer = builder().withLimit(CAPACITY / 4)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.withCompactionThreshold(0.5)
+			.withCompactionDelay(0)
+			.build();
+		assertEquals(CAPACITY, ringBuffer.capacity());
+		ringBuffer.remove(CAPACITY - 1);
+		// under threshold, but at the end of the file
+		assertEquals(CAPACITY, ringBuffer.capacity());
+		ringBuffer.remove(1);
+		assertEquals(CAPACITY / 4, ringBuffer.capacity());
+	}
+
+	@Test
+	public void test_legacy_header_upgrade() throws IOException {
+		closeBuffer();
+		int legacyHeaderLength = ringBuffer.legacyHeaderLength();
+		byte[] data = data(CAPACITY);
+		ByteBuffer buffer = ByteBuffer.allocate(legacyHeaderLength + CAPACITY);
+		// version 1 header: position, size, capacity (and optional subclass fields)
+		buffer.putInt(CAPACITY / 4);
+		buffer.putInt(CAPACITY / 2);
+		buffer.putInt(CAPACITY);
+		buffer.position(legacyHeaderLength);
+		buffer.put(data);
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(ringBufferFile.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+
+		ringBuffer = createRingBuffer(CAPACITY);
+		assertEquals(CAPACITY / 4, ringBuffer.state().position().position());
+		assertEquals(CAPACITY / 2, ringBuffer.size());
+		assertEquals(CAPACITY, ringBuffer.capacity());
+		assertEquals(ringBuffer.headerLength() + CAPACITY, ringBufferFile.length());
+
+		byte[] actuals = new byte[CAPACITY / 2];
+		int read = read(actuals);
+		assertEquals(CAPACITY / 2, read);
+		assertArrayEquals(Arrays.copyOfRange(data, CAPACITY / 4, 3 * CAPACITY / 4), actuals);
+
+		// header has been rewritten in the current format
+		closeBuffer();
+		try (FileChannel channel = FileChannel.open(ringBufferFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(2 * Integer.BYTES);
+			channel.read(magic, 0);
+			assertTrue(magic.getInt(0) < 0);
+			assertEquals(FileRingBuffer.HEADER_VERSION, magic.getInt(Integer.BYTES));
+		}
+		ringBuffer = createRingBuffer(CAPACITY);
+		assertEquals(CAPACITY / 2, ringBuffer.size());
+	}
+
+	@Test
+	public void test_torn_header() throws IOException {
+		write(data(CAPACITY / 2));
+		ringBuffer.remove(CAPACITY / 4);
+		int slotLength = ringBuffer.headerLength() / 2;
+		closeBuffer();
+
+		// corrupt the state of the latest slot, as a torn write would
+		try (FileChannel channel = FileChannel.open(ringBufferFile.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer sequences = ByteBuffer.allocate(ringBuffer.headerLength());
+			channel.read(sequences, 0);
+			long latest = sequences.getLong(2 * Integer.BYTES) > sequences.getLong(slotLength + 2 * Integer.BYTES)
+					? 0
+					: slotLength;
+			ByteBuffer garbage = ByteBuffer.wrap(new byte[] { 42 });
+			channel.write(garbage, latest + slotLength - Integer.BYTES - 1);
+		}
+
+		// previous state is used
+		ringBuffer = createRingBuffer(CAPACITY);
+		assertEquals(CAPACITY / 2, ringBuffer.size());
+		assertStatePosition(0);
+	}
+
+	@Test
+	public void test_deferred_header() throws IOException {
+		closeBuffer();
+		ringBuffer = builder().withLimit(CAPACITY)
+			.withSyncMode(SyncMode.NONE)
+			.withDeferredHeader(1000, 1, TimeUnit.HOURS)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.build();
+		// first update is written
+		write(data(CAPACITY / 2));
+		ringBuffer.remove(CAPACITY / 4);
+		write(data(CAPACITY / 4));
+		assertEquals(CAPACITY / 2, ringBuffer.size());
+		assertPersistedState(0, CAPACITY / 2);
+
+		// overwriting removed data still referenced by the header writes it first
+		write(data(CAPACITY / 2));
+		assertEquals(CAPACITY, ringBuffer.size());
+		assertPersistedState(CAPACITY / 4, CAPACITY / 2);
+
+		// written on close
+		ringBuffer.remove(CAPACITY / 4);
+		closeBuffer();
+		ringBuffer = createRingBuffer(CAPACITY);
+		assertEquals(3 * CAPACITY / 4, ringBuffer.size());
+		assertStatePosition(CAPACITY / 2);
+	}
+
+	/**
+	 * Check the header state by opening a copy of the file, as after a crash
+	 */
+	private void assertPersistedState(int position, int size) throws IOException {
+		File copy = new File(ringBufferFile.getPath() + ".copy");
+		Files.copy(ringBufferFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		FileRingBuffer persisted = FileRingBuffer.builder(copy).withLimit(CAPACITY).build();
+		try {
+			assertEquals(position, persisted.state().position().position());
+			assertEquals(size, persisted.size());
+		} finally {
+			persisted.close();
+			copy.delete();
+		}
+	}
+
+	@Test
+	public void test_long_header() throws IOException {
+		RingBufferState state = new RingBufferState(3L << 32, 0, 1L << 34, (1L << 33) + 5);
+		ByteBuffer buffer = ByteBuffer.allocate(ringBuffer.headerLength());
+		ringBuffer.writeHeader(state, buffer);
+		buffer.flip();
+		RingBufferState actual = ringBuffer.readHeader(buffer);
+		assertEquals(state.position().position(), actual.position().position());
+		assertEquals(state.size(), actual.size());
+		assertEquals(state.capacity(), actual.capacity());
+	}
+
 	private void assertStatePosition(int expected) {
 		assertEquals(expected, ringBuffer.state().position().position());
 	}
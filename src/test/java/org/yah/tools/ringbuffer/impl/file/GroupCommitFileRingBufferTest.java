@@ -0,0 +1,60 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.SyncMode;
+
+public class GroupCommitFileRingBufferTest extends FileRingBufferTest {
+
+	@Override
+	protected FileRingBuffer.Builder builder() {
+		return super.builder()
+			.withSyncMode(SyncMode.FORCE)
+			.withGroupCommitWindow(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void test_group_commit() throws Exception {
+		int threads = 8;
+		int updates = 50;
+		AtomicInteger forces = new AtomicInteger();
+		GroupCommit groupCommit = new GroupCommit(() -> {
+			forces.incrementAndGet();
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}, 1, TimeUnit.MILLISECONDS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < updates; i++) {
+					groupCommit.written();
+					groupCommit.await();
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+
+		assertEquals(forces.get(), groupCommit.forceCount());
+		assertTrue("expected less force than updates: " + forces.get(), forces.get() < threads * updates);
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.LinearBuffer;
+import org.yah.tools.ringbuffer.impl.RingBufferUtils;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferClosedException;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.StorageMode;
+
+public class MappedFileRingBufferTest extends FileRingBufferTest {
+
+	@Override
+	protected FileRingBuffer.Builder builder() {
+		return super.builder().withStorageMode(StorageMode.MAPPED);
+	}
+
+	@Override
+	protected long expectedFileLength(int dataLength, int capacity) {
+		// the whole data region is mapped, so the file always covers the capacity
+		return ringBuffer.headerLength() + capacity;
+	}
+
+	@Test
+	public void test_segments() throws IOException {
+		closeBuffer();
+		ringBuffer = builder().withLimit(CAPACITY)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.withMappedSegmentSize(4)
+			.build();
+		assertEquals(StorageMode.MAPPED, ringBuffer.storageMode());
+		write(data(CAPACITY));
+		ringBuffer.remove(CAPACITY / 4 + 1);
+		write(data(CAPACITY / 4 + 1, 100));
+
+		byte[] actuals = new byte[CAPACITY];
+		try (InputStream is = createReader()) {
+			assertEquals(CAPACITY, is.read(actuals));
+		}
+		byte[] expecteds = new byte[CAPACITY];
+		System.arraycopy(data(CAPACITY), CAPACITY / 4 + 1, expecteds, 0, CAPACITY - CAPACITY / 4 - 1);
+		System.arraycopy(data(CAPACITY / 4 + 1, 100), 0, expecteds, CAPACITY - CAPACITY / 4 - 1, CAPACITY / 4 + 1);
+		assertArrayEquals(expecteds, actuals);
+	}
+
+	@Test
+	public void test_grow_releases_mapping() throws IOException {
+		closeBuffer();
+		ringBuffer = builder().withLimit(CAPACITY)
+			.withMaxCapacity(4 * CAPACITY)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.build();
+		LinearBuffer replaced = ringBuffer.mapping();
+		byte[] data = data(2 * CAPACITY);
+		write(data);
+		assertEquals(2 * CAPACITY, ringBuffer.capacity());
+		assertReleased(replaced);
+
+		byte[] actual = new byte[data.length];
+		assertEquals(data.length, read(actual));
+		assertArrayEquals(data, actual);
+	}
+
+	@Test
+	public void test_compact_releases_mapping() throws IOException {
+		write(data(CAPACITY));
+		closeBuffer();
+		ringBuffer = createRingBuffer(CAPACITY / 4);
+		ringBuffer.remove(CAPACITY);
+		write(data(CAPACITY / 4));
+		ringBuffer.remove(CAPACITY / 4);
+
+		LinearBuffer replaced = ringBuffer.mapping();
+		assertTrue(ringBuffer.compact());
+		assertReleased(replaced);
+		// truncated once unmapped
+		assertEquals(ringBuffer.headerLength() + CAPACITY / 2, ringBufferFile.length());
+	}
+
+	/**
+	 * The reader snapshots taken before a capacity increase read from the
+	 * replaced mapping: they must read again from the new one once it is
+	 * released.
+	 */
+	@Test
+	public void test_grow_while_reading() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (int i = 0; i < 10; i++) {
+				closeBuffer();
+				ringBufferFile.delete();
+				ringBuffer = builder().withLimit(CAPACITY)
+					.withMaxCapacity(1024 * 1024)
+					.withDefaultReaderCache(0)
+					.withWriteBufferSize(0)
+					.build();
+				growWhileReading(executor);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void growWhileReading(ExecutorService executor) throws Exception {
+		int count = 16 * 1024;
+		Future<?> reader = executor.submit(() -> {
+			try (InputStream is = createReader()) {
+				byte[] value = new byte[Integer.BYTES];
+				for (int i = 0; i < count; i++) {
+					RingBufferUtils.readFully(is, value, 0, value.length);
+					assertEquals(i, ByteBuffer.wrap(value).getInt());
+					ringBuffer.remove(Integer.BYTES);
+				}
+			}
+			return null;
+		});
+
+		try (OutputStream os = ringBuffer.writer()) {
+			ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+			for (int i = 0; i < count; i++) {
+				value.putInt(0, i);
+				os.write(value.array());
+				os.flush();
+			}
+		}
+		reader.get(30, TimeUnit.SECONDS);
+		assertTrue(ringBuffer.capacity() > CAPACITY);
+	}
+
+	private static void assertReleased(LinearBuffer linearBuffer) throws IOException {
+		try {
+			linearBuffer.read(0, new byte[1], 0, 1);
+			fail("replaced mapping not released");
+		} catch (RingBufferClosedException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.exceptions.RingBufferOverflowException;
+import org.yah.tools.ringbuffer.impl.file.FileRingBuffer.StorageMode;
+
+public class SegmentedFileRingBufferTest {
+
+	private static final int SEGMENT_SIZE = 16;
+
+	private final File ringBufferFile = new File("target/test/ring-buffers/segmented-ring-buffer.dat");
+
+	private FileRingBuffer ringBuffer;
+
+	@Before
+	public void setup() throws IOException {
+		ringBufferFile.getParentFile().mkdirs();
+		deleteFiles();
+		ringBuffer = builder().build();
+	}
+
+	@After
+	public void close() throws IOException {
+		if (ringBuffer != null)
+			ringBuffer.close();
+	}
+
+	private FileRingBuffer.Builder builder() {
+		return FileRingBuffer.builder(ringBufferFile)
+			.withStorageMode(StorageMode.SEGMENTED)
+			.withSegmentSize(SEGMENT_SIZE)
+			.withLimit(0)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0);
+	}
+
+	private void deleteFiles() throws IOException {
+		File[] files = ringBufferFile.getParentFile()
+			.listFiles((d, n) -> n.startsWith(ringBufferFile.getName()));
+		for (File file : files) {
+			if (!file.delete())
+				throw new IOException("Unable to delete " + file);
+		}
+	}
+
+	private File segmentFile(long index) {
+		return new File(ringBufferFile.getParentFile(),
+				String.format("%s.%012d", ringBufferFile.getName(), index));
+	}
+
+	private static byte[] data(int length, int offset) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (offset + i);
+		}
+		return data;
+	}
+
+	private void write(byte[] data) throws IOException {
+		try (OutputStream os = ringBuffer.writer()) {
+			os.write(data);
+		}
+	}
+
+	private byte[] read(int length) throws IOException {
+		byte[] actual = new byte[length];
+		try (InputStream is = ringBuffer.reader()) {
+			int read = 0;
+			while (read < length)
+				read += is.read(actual, read, length - read);
+		}
+		return actual;
+	}
+
+	@Test
+	public void test_write_read_across_segments() throws IOException {
+		assertEquals(FileRingBuffer.SEGMENTED_CAPACITY, ringBuffer.capacity());
+		byte[] data = data(5 * SEGMENT_SIZE + 3, 0);
+		write(data);
+		assertEquals(data.length, ringBuffer.size());
+		assertArrayEquals(data, read(data.length));
+		for (int i = 0; i < 6; i++)
+			assertTrue(segmentFile(i).exists());
+		// header only, data are in segments
+		assertEquals(ringBuffer.headerLength(), ringBufferFile.length());
+	}
+
+	@Test
+	public void test_remove_deletes_segments() throws IOException {
+		write(data(3 * SEGMENT_SIZE, 0));
+		ringBuffer.remove(SEGMENT_SIZE - 1);
+		assertTrue(segmentFile(0).exists());
+
+		ringBuffer.remove(SEGMENT_SIZE + 1);
+		assertFalse(segmentFile(0).exists());
+		assertFalse(segmentFile(1).exists());
+		assertTrue(segmentFile(2).exists());
+		assertArrayEquals(data(SEGMENT_SIZE, 2 * SEGMENT_SIZE), read(SEGMENT_SIZE));
+
+		ringBuffer.remove(SEGMENT_SIZE);
+		assertEquals(0, ringBuffer.size());
+		assertFalse(segmentFile(2).exists());
+	}
+
+	@Test
+	public void test_persistency() throws IOException {
+		write(data(4 * SEGMENT_SIZE, 0));
+		ringBuffer.remove(2 * SEGMENT_SIZE + 4);
+
+		ringBuffer.close();
+		ringBuffer = builder().build();
+		assertEquals(2 * SEGMENT_SIZE - 4, ringBuffer.size());
+		assertEquals(2 * SEGMENT_SIZE + 4, ringBuffer.state().position().position());
+		assertArrayEquals(data(2 * SEGMENT_SIZE - 4, 2 * SEGMENT_SIZE + 4), read(2 * SEGMENT_SIZE - 4));
+
+		write(data(SEGMENT_SIZE, 100));
+		byte[] expected = new byte[3 * SEGMENT_SIZE - 4];
+		System.arraycopy(data(2 * SEGMENT_SIZE - 4, 2 * SEGMENT_SIZE + 4), 0, expected, 0, 2 * SEGMENT_SIZE - 4);
+		System.arraycopy(data(SEGMENT_SIZE, 100), 0, expected, 2 * SEGMENT_SIZE - 4, SEGMENT_SIZE);
+		assertArrayEquals(expected, read(expected.length));
+	}
+
+	@Test
+	public void test_stale_segments_deleted_on_open() throws IOException {
+		write(data(2 * SEGMENT_SIZE, 0));
+		ringBuffer.remove(SEGMENT_SIZE);
+		ringBuffer.close();
+		// as left by a crash between the header update and the segment deletion
+		assertTrue(segmentFile(0).createNewFile());
+
+		ringBuffer = builder().build();
+		assertFalse(segmentFile(0).exists());
+		assertArrayEquals(data(SEGMENT_SIZE, SEGMENT_SIZE), read(SEGMENT_SIZE));
+	}
+
+	@Test
+	public void test_migrate_from_single_file() throws IOException {
+		ringBuffer.close();
+		deleteFiles();
+		int capacity = 4 * SEGMENT_SIZE;
+		ringBuffer = FileRingBuffer.builder(ringBufferFile)
+			.withLimit(capacity)
+			.withDefaultReaderCache(0)
+			.withWriteBufferSize(0)
+			.build();
+		write(data(capacity, 0));
+		ringBuffer.remove(3 * SEGMENT_SIZE);
+		write(data(2 * SEGMENT_SIZE, 50));
+		assertTrue(ringBuffer.state().wrapped());
+		ringBuffer.close();
+
+		ringBuffer = builder().build();
+		assertEquals(FileRingBuffer.SEGMENTED_CAPACITY, ringBuffer.capacity());
+		assertEquals(0, ringBuffer.state().position().position());
+		assertEquals(3 * SEGMENT_SIZE, ringBuffer.size());
+		assertEquals(ringBuffer.headerLength(), ringBufferFile.length());
+
+		byte[] expected = new byte[3 * SEGMENT_SIZE];
+		System.arraycopy(data(capacity, 0), 3 * SEGMENT_SIZE, expected, 0, SEGMENT_SIZE);
+		System.arraycopy(data(2 * SEGMENT_SIZE, 50), 0, expected, SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+		assertArrayEquals(expected, read(expected.length));
+	}
+
+	@Test(expected = IOException.class)
+	public void test_segmented_file_requires_segmented_mode() throws IOException {
+		ringBuffer.close();
+		ringBuffer = null;
+		FileRingBuffer.builder(ringBufferFile).build();
+	}
+
+	@Test
+	public void test_preallocation() throws IOException {
+		ringBuffer.close();
+		deleteFiles();
+		ringBuffer = builder().withPreallocation(true).build();
+		write(data(SEGMENT_SIZE + 1, 0));
+		assertEquals(SEGMENT_SIZE, segmentFile(0).length());
+		assertEquals(SEGMENT_SIZE, segmentFile(1).length());
+		assertArrayEquals(data(SEGMENT_SIZE + 1, 0), read(SEGMENT_SIZE + 1));
+	}
+
+	@Test
+	public void test_limit() throws IOException {
+		ringBuffer.close();
+		deleteFiles();
+		ringBuffer = builder().withLimit(2 * SEGMENT_SIZE).withWriteTimeout(-1).build();
+		write(data(2 * SEGMENT_SIZE, 0));
+		try {
+			write(data(1, 0));
+			throw new AssertionError("limit exceeded");
+		} catch (RingBufferOverflowException e) {
+			// expected
+		}
+		ringBuffer.remove(SEGMENT_SIZE);
+		write(data(SEGMENT_SIZE, 0));
+		assertEquals(2 * SEGMENT_SIZE, ringBuffer.size());
+		assertArrayEquals(data(SEGMENT_SIZE, SEGMENT_SIZE), Arrays.copyOf(read(2 * SEGMENT_SIZE), SEGMENT_SIZE));
+	}
+}
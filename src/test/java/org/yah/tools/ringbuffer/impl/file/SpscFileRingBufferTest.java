@@ -0,0 +1,12 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+
+public class SpscFileRingBufferTest extends FileRingBufferTest {
+
+	@Override
+	protected FileRingBuffer.Builder builder() {
+		return super.builder().withConcurrencyMode(ConcurrencyMode.SPSC);
+	}
+
+}
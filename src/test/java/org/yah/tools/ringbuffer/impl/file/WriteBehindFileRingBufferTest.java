@@ -0,0 +1,142 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yah.tools.ringbuffer.impl.AbstractStreamRingBuffer.ConcurrencyMode;
+
+public class WriteBehindFileRingBufferTest {
+
+	private static final int STAGING_CAPACITY = 64;
+
+	private final File ringBufferFile = new File("target/test/ring-buffers/write-behind-ring-buffer.dat");
+
+	private FileRingBuffer ringBuffer;
+
+	@Before
+	public void setup() throws IOException {
+		ringBufferFile.getParentFile().mkdirs();
+		if (ringBufferFile.exists() && !ringBufferFile.delete())
+			throw new IOException("Unable to delete " + ringBufferFile);
+		ringBuffer = builder().build();
+	}
+
+	@After
+	public void close() throws IOException {
+		if (ringBuffer != null)
+			ringBuffer.close();
+	}
+
+	private FileRingBuffer.Builder builder() {
+		return FileRingBuffer.builder(ringBufferFile)
+			.withLimit(1024 * 1024)
+			.withWriteBehind(STAGING_CAPACITY);
+	}
+
+	private static byte[] data(int length, int offset) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (offset + i);
+		}
+		return data;
+	}
+
+	private void write(byte[] data) throws IOException {
+		try (OutputStream os = ringBuffer.writer()) {
+			os.write(data);
+		}
+	}
+
+	private byte[] read(int length) throws IOException {
+		byte[] actual = new byte[length];
+		try (InputStream is = ringBuffer.reader()) {
+			int read = 0;
+			while (read < length)
+				read += is.read(actual, read, length - read);
+		}
+		return actual;
+	}
+
+	@Test
+	public void test_write_behind() throws Exception {
+		write(data(10, 0));
+		write(data(20, 10));
+		assertEquals(30, ringBuffer.stagedWatermark());
+		assertEquals(Long.valueOf(30), ringBuffer.awaitWritten().get(5, TimeUnit.SECONDS));
+		assertEquals(30, ringBuffer.writtenWatermark());
+		assertEquals(30, ringBuffer.size());
+		assertArrayEquals(data(30, 0), read(30));
+	}
+
+	@Test
+	public void test_larger_than_staging() throws Exception {
+		byte[] data = data(4 * STAGING_CAPACITY, 0);
+		write(data);
+		write(data);
+		ringBuffer.awaitWritten().get(5, TimeUnit.SECONDS);
+		assertEquals(2 * data.length, ringBuffer.size());
+		assertArrayEquals(data, read(data.length));
+	}
+
+	@Test
+	public void test_close_drains_staging() throws IOException {
+		for (int i = 0; i < 100; i++)
+			write(data(10, i));
+		ringBuffer.close();
+		ringBuffer = FileRingBuffer.builder(ringBufferFile).withLimit(1024 * 1024).build();
+		assertEquals(1000, ringBuffer.size());
+		assertArrayEquals(data(10, 99), Arrays.copyOfRange(read(1000), 990, 1000));
+	}
+
+	@Test
+	public void test_concurrent_producers() throws Exception {
+		int producers = 4;
+		int writes = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(producers);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < writes; i++)
+					write(data(8, 0));
+				return null;
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		ringBuffer.awaitWritten().get(5, TimeUnit.SECONDS);
+		assertEquals(producers * writes * 8, ringBuffer.size());
+		byte[] all = read(producers * writes * 8);
+		for (int i = 0; i < producers * writes; i++)
+			assertEquals(7, all[i * 8 + 7]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_mpsc_not_supported() throws IOException {
+		ringBuffer.close();
+		ringBuffer = null;
+		builder().withConcurrencyMode(ConcurrencyMode.MPSC).build();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_watermark_requires_write_behind() throws IOException {
+		ringBuffer.close();
+		ringBuffer = FileRingBuffer.builder(ringBufferFile).build();
+		ringBuffer.writtenWatermark();
+	}
+}
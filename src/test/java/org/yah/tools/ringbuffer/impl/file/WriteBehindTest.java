@@ -0,0 +1,138 @@
+package org.yah.tools.ringbuffer.impl.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class WriteBehindTest {
+
+	private static final int CAPACITY = 16;
+
+	private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+	private int writtenRecords;
+
+	private byte[] stagingArray;
+
+	private WriteBehind writeBehind;
+
+	@After
+	public void close() throws IOException {
+		if (writeBehind != null)
+			writeBehind.close();
+	}
+
+	private static byte[] data(int length, int offset) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (offset + i);
+		}
+		return data;
+	}
+
+	private void collect(ByteBuffer[] sources, int records) {
+		for (ByteBuffer source : sources) {
+			if (source.remaining() <= CAPACITY) {
+				if (stagingArray == null)
+					stagingArray = source.array();
+				assertSame(stagingArray, source.array());
+			}
+			written.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+		}
+		writtenRecords += records;
+	}
+
+	@Test
+	public void test_staging_ring() throws Exception {
+		writeBehind = new WriteBehind("test", CAPACITY, this::collect);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 200; i++) {
+			// wraps around the staging ring, the last one is larger than it
+			byte[] data = data(i % (CAPACITY + 2) + 1, i);
+			writeBehind.write(data, 0, data.length, 1);
+			expected.write(data);
+		}
+		assertEquals(expected.size(), writeBehind.stagedWatermark());
+		assertEquals(Long.valueOf(expected.size()), writeBehind.awaitWritten().get(5, TimeUnit.SECONDS));
+		assertArrayEquals(expected.toByteArray(), written.toByteArray());
+		assertEquals(200, writtenRecords);
+	}
+
+	@Test
+	public void test_failure() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch failing = new CountDownLatch(1);
+		IOException error = new IOException("disk full");
+		writeBehind = new WriteBehind("test", CAPACITY, (sources, records) -> {
+			writing.countDown();
+			try {
+				failing.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw error;
+		});
+		writeBehind.write(data(8, 0), 0, 8, 1);
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		// accepted while the first batch is being written
+		writeBehind.write(data(8, 8), 0, 8, 1);
+		failing.countDown();
+
+		try {
+			writeBehind.awaitWritten().get(5, TimeUnit.SECONDS);
+			fail("write behind failure not reported");
+		} catch (ExecutionException e) {
+			assertSame(error, e.getCause());
+		}
+		assertEquals(16, writeBehind.stagedWatermark());
+		assertEquals(0, writeBehind.writtenWatermark());
+
+		try {
+			writeBehind.write(data(1, 0), 0, 1, 1);
+			fail("write accepted after failure");
+		} catch (IOException e) {
+			assertSame(error, e.getCause());
+		}
+		assertEquals(16, writeBehind.stagedWatermark());
+
+		try {
+			writeBehind.close();
+			fail("close succeeded after failure");
+		} catch (IOException e) {
+			assertSame(error, e);
+		} finally {
+			writeBehind = null;
+		}
+	}
+
+	@Test
+	public void test_oversized_failure() throws Exception {
+		IOException error = new IOException("disk full");
+		writeBehind = new WriteBehind("test", CAPACITY, (sources, records) -> {
+			throw error;
+		});
+		byte[] data = data(4 * CAPACITY, 0);
+		try {
+			writeBehind.write(data, 0, data.length, 1);
+			fail("oversized write not failed");
+		} catch (IOException e) {
+			assertSame(error, e.getCause());
+		}
+		assertEquals(4 * CAPACITY, writeBehind.stagedWatermark());
+		assertEquals(0, writeBehind.writtenWatermark());
+		writeBehind = null;
+	}
+
+}